@@ -0,0 +1,508 @@
+// ahead-of-time compiler
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.stream.Stream;
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+
+// Translates each program into Java source (one class per program, one static method per
+// function) and compiles that with the JDK's javac into ordinary class files. The generated
+// classes call into SimpleLangInterpreter, SimpleLangContext and friends for the dynamic parts
+// of the language; the jar carries a copy of those runtime classes.
+public class SimpleLangAotCompiler {
+
+    public static void main(String[] args) throws IOException {
+        Path output = null;
+        String classpath = System.getProperty("java.class.path");
+        List<Path> sources = new ArrayList<>();
+
+        for (int i = 0; i < args.length; i++) {
+            if ("-o".equals(args[i]) && i + 1 < args.length) {
+                output = Paths.get(args[++i]);
+            } else if ("-cp".equals(args[i]) && i + 1 < args.length) {
+                classpath = args[++i];
+            } else {
+                sources.add(Paths.get(args[i]));
+            }
+        }
+
+        if (output == null || sources.isEmpty()) {
+            System.err.println("Usage: SimpleLangAotCompiler -o <output.jar> [-cp <runtime classpath>] <source>...");
+            System.exit(2);
+        }
+
+        try {
+            new SimpleLangAotCompiler().compile(sources, output, classpath);
+        } catch (RuntimeException | IOException e) {
+            System.err.println("SimpleLangAotCompiler: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    public void compile(List<Path> sources, Path jar, String classpath) throws IOException {
+        Map<String, String> classes = new LinkedHashMap<>();
+        for (Path source : sources) {
+            String className = className(source);
+            if (classes.containsKey(className)) {
+                throw new RuntimeException("Two sources map to class " + className + ".");
+            }
+            SimpleLangProgram program = SimpleLangProgram.compile(Files.readString(source));
+            classes.put(className, generate(className, program));
+        }
+
+        JavaCompiler javac = ToolProvider.getSystemJavaCompiler();
+        if (javac == null) {
+            throw new RuntimeException("No system Java compiler; run the AOT compiler on a JDK.");
+        }
+
+        Path work = Files.createTempDirectory("simplelang-aot");
+        try {
+            List<String> arguments = new ArrayList<>(List.of("-d", work.resolve("classes").toString(), "-cp", classpath));
+            for (Map.Entry<String, String> entry : classes.entrySet()) {
+                Path file = work.resolve(entry.getKey() + ".java");
+                Files.writeString(file, entry.getValue());
+                arguments.add(file.toString());
+            }
+            if (javac.run(null, null, null, arguments.toArray(new String[0])) != 0) {
+                throw new RuntimeException("javac failed on generated sources in " + work + ".");
+            }
+            writeJar(work.resolve("classes"), jar, classpath, classes.size() == 1 ? classes.keySet().iterator().next() : null);
+        } finally {
+            deleteRecursively(work);
+        }
+    }
+
+    public String generate(String className, SimpleLangProgram program) {
+        return new ClassGenerator(className, program).generate();
+    }
+
+    private static String className(Path source) {
+        String name = source.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        if (dot > 0) {
+            name = name.substring(0, dot);
+        }
+
+        StringBuilder builder = new StringBuilder();
+        for (char c : name.toCharArray()) {
+            builder.append(Character.isLetterOrDigit(c) || c == '_' ? c : '_');
+        }
+        if (builder.length() == 0 || Character.isDigit(builder.charAt(0))) {
+            builder.insert(0, '_');
+        }
+        builder.setCharAt(0, Character.toUpperCase(builder.charAt(0)));
+
+        String className = builder.toString();
+        if (className.startsWith("SimpleLang")) {
+            throw new RuntimeException("Class name " + className + " would clash with the runtime; rename " + source + ".");
+        }
+        // The generated code refers to java.lang classes and Arrays by their simple names, and a
+        // class called String would not even have a valid main, so such names get a suffix.
+        if (className.equals("_") || className.equals("Arrays") || isJavaLangClass(className)) {
+            className += "Script";
+        }
+        return className;
+    }
+
+    private static boolean isJavaLangClass(String name) {
+        try {
+            Class.forName("java.lang." + name, false, SimpleLangAotCompiler.class.getClassLoader());
+            return true;
+        } catch (ClassNotFoundException e) {
+            return false;
+        }
+    }
+
+    // The runtime classes are copied in from the classpath the sources were compiled against, so
+    // the jar is self-contained and "java -jar" works when it has a Main-Class.
+    private static void writeJar(Path classes, Path jar, String classpath, String mainClass) throws IOException {
+        Manifest manifest = new Manifest();
+        manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        if (mainClass != null) {
+            manifest.getMainAttributes().put(Attributes.Name.MAIN_CLASS, mainClass);
+        }
+
+        Map<String, byte[]> entries = new TreeMap<>();
+        try (Stream<Path> files = Files.walk(classes)) {
+            for (Path file : (Iterable<Path>) files.filter(Files::isRegularFile)::iterator) {
+                entries.put(classes.relativize(file).toString().replace('\\', '/'), Files.readAllBytes(file));
+            }
+        }
+        Map<String, byte[]> runtime = runtimeClasses(classpath);
+        if (!runtime.containsKey("SimpleLangInterpreter.class")) {
+            throw new RuntimeException("The SimpleLang runtime classes are not on the classpath " + classpath + ".");
+        }
+        entries.putAll(runtime);
+
+        try (OutputStream out = Files.newOutputStream(jar);
+             JarOutputStream jarOut = new JarOutputStream(out, manifest)) {
+            for (Map.Entry<String, byte[]> entry : entries.entrySet()) {
+                jarOut.putNextEntry(new JarEntry(entry.getKey()));
+                jarOut.write(entry.getValue());
+                jarOut.closeEntry();
+            }
+        }
+    }
+
+    // Every SimpleLang*.class in the default package of each classpath directory or jar; the
+    // first entry on the classpath wins, as it would when loading.
+    private static Map<String, byte[]> runtimeClasses(String classpath) throws IOException {
+        Map<String, byte[]> classes = new HashMap<>();
+        for (String element : classpath.split(File.pathSeparator)) {
+            Path path = Paths.get(element.isEmpty() ? "." : element);
+            if (Files.isDirectory(path)) {
+                try (Stream<Path> files = Files.list(path)) {
+                    for (Path file : (Iterable<Path>) files::iterator) {
+                        String name = file.getFileName().toString();
+                        if (isRuntimeClass(name) && Files.isRegularFile(file)) {
+                            classes.putIfAbsent(name, Files.readAllBytes(file));
+                        }
+                    }
+                }
+            } else if (Files.isRegularFile(path)) {
+                try (JarFile jarFile = new JarFile(path.toFile())) {
+                    for (JarEntry entry : Collections.list(jarFile.entries())) {
+                        if (isRuntimeClass(entry.getName()) && !classes.containsKey(entry.getName())) {
+                            try (InputStream in = jarFile.getInputStream(entry)) {
+                                classes.put(entry.getName(), in.readAllBytes());
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        return classes;
+    }
+
+    private static boolean isRuntimeClass(String name) {
+        return name.startsWith("SimpleLang") && name.endsWith(".class") && name.indexOf('/') < 0;
+    }
+
+    private static void deleteRecursively(Path root) throws IOException {
+        try (Stream<Path> files = Files.walk(root)) {
+            for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    private static final class ClassGenerator {
+        private final String className;
+        private final SimpleLangProgram program;
+        private final StringBuilder constants = new StringBuilder();
+        private final Map<Object, String> constantNames = new HashMap<>();
+        private final Deque<Map<String, String>> scopes = new ArrayDeque<>();
+        private int locals;
+        private boolean inFunction;
+
+        private ClassGenerator(String className, SimpleLangProgram program) {
+            this.className = className;
+            this.program = program;
+        }
+
+        private String generate() {
+            StringBuilder methods = new StringBuilder();
+
+            methods.append("    public static void run(SimpleLangContext ctx) {\n");
+            inFunction = false;
+            scopes.push(new HashMap<>());
+            emitStatements(program.getStatements(), methods, 2);
+            scopes.pop();
+            methods.append("    }\n");
+
+            for (Map.Entry<String, Map<String, Object>> entry : new TreeMap<>(program.getFunctions()).entrySet()) {
+                methods.append("\n");
+                emitFunction(entry.getKey(), entry.getValue(), methods);
+            }
+
+            methods.append("\n");
+            methods.append("    public static void main(String[] args) {\n");
+            methods.append("        SimpleLangContext ctx = new SimpleLangContext();\n");
+            methods.append("        run(ctx);\n");
+            methods.append("        System.out.println(ctx.getGlobals());\n");
+            methods.append("    }\n");
+
+            return "// generated by SimpleLangAotCompiler\n"
+                    + "import java.util.Arrays;\n\n"
+                    + "public final class " + className + " {\n"
+                    + constants
+                    + (constants.length() > 0 ? "\n" : "")
+                    + "    private " + className + "() {\n    }\n\n"
+                    + methods
+                    + "}\n";
+        }
+
+        @SuppressWarnings("unchecked")
+        private void emitFunction(String name, Map<String, Object> function, StringBuilder out) {
+            List<String> parameters = (List<String>) function.get("parameters");
+            Map<String, String> scope = new HashMap<>();
+            StringBuilder signature = new StringBuilder("SimpleLangContext ctx");
+            for (String parameter : parameters) {
+                String local = newLocal(parameter);
+                scope.put(parameter, local);
+                signature.append(", Object ").append(local);
+            }
+
+            out.append("    public static Object ").append(methodName(name)).append("(").append(signature).append(") {\n");
+            out.append("        ctx.tick();\n");
+            inFunction = true;
+            scopes.push(scope);
+            if (emitStatements(program.getFunctionBody(function), out, 2)) {
+                out.append("        return null;\n");
+            }
+            scopes.pop();
+            out.append("    }\n");
+        }
+
+        // Returns whether the statements can complete normally, mirroring javac's reachability
+        // rules so that no statement is emitted where javac would reject it as unreachable.
+        private boolean emitStatements(List<Map<String, Object>> statements, StringBuilder out, int depth) {
+            for (Map<String, Object> statement : statements) {
+                if (!emitStatement(statement, out, depth)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private boolean emitBlock(List<Map<String, Object>> statements, StringBuilder out, int depth) {
+            scopes.push(new HashMap<>());
+            boolean completes = emitStatements(statements, out, depth);
+            scopes.pop();
+            return completes;
+        }
+
+        @SuppressWarnings("unchecked")
+        private boolean emitStatement(Map<String, Object> node, StringBuilder out, int depth) {
+            String indent = "    ".repeat(depth);
+            switch ((String) node.get("type")) {
+                case "variableDeclaration": {
+                    String name = (String) node.get("identifier");
+                    Map<String, Object> initializer = (Map<String, Object>) node.get("value");
+                    String value = initializer == null ? "null" : expression(initializer);
+                    if (!inFunction && scopes.size() == 1) {
+                        out.append(indent).append("ctx.define(").append(javaString(name)).append(", ").append(value).append(");\n");
+                    } else {
+                        String local = newLocal(name);
+                        out.append(indent).append("Object ").append(local).append(" = ").append(value).append(";\n");
+                        scopes.peek().put(name, local);
+                    }
+                    return true;
+                }
+                case "assignment": {
+                    String name = (String) node.get("name");
+                    String value = expression((Map<String, Object>) node.get("value"));
+                    String local = resolve(name);
+                    if (local != null) {
+                        out.append(indent).append(local).append(" = ").append(value).append(";\n");
+                    } else {
+                        out.append(indent).append("ctx.assign(").append(javaString(name)).append(", ").append(value).append(");\n");
+                    }
+                    return true;
+                }
+                case "ifStatement": {
+                    out.append(indent).append("if (SimpleLangInterpreter.isTruthy(")
+                            .append(expression((Map<String, Object>) node.get("condition"))).append(")) {\n");
+                    boolean completes = emitBlock((List<Map<String, Object>>) node.get("trueBranch"), out, depth + 1);
+                    if (node.get("falseBranch") != null) {
+                        out.append(indent).append("} else {\n");
+                        completes |= emitBlock((List<Map<String, Object>>) node.get("falseBranch"), out, depth + 1);
+                    } else {
+                        completes = true;
+                    }
+                    out.append(indent).append("}\n");
+                    return completes;
+                }
+                case "whileStatement": {
+                    out.append(indent).append("while (SimpleLangInterpreter.isTruthy(")
+                            .append(expression((Map<String, Object>) node.get("condition"))).append(")) {\n");
+                    out.append(indent).append("    ctx.tick();\n");
+                    emitBlock((List<Map<String, Object>>) node.get("body"), out, depth + 1);
+                    out.append(indent).append("}\n");
+                    return true;
+                }
+                case "block": {
+                    out.append(indent).append("{\n");
+                    boolean completes = emitBlock((List<Map<String, Object>>) node.get("statements"), out, depth + 1);
+                    out.append(indent).append("}\n");
+                    return completes;
+                }
+                case "functionDeclaration":
+                    // Every function becomes a static method of the class.
+                    return true;
+                case "functionCall":
+                    out.append(indent).append(expression(node)).append(";\n");
+                    return true;
+                case "returnStatement": {
+                    Map<String, Object> value = (Map<String, Object>) node.get("value");
+                    if (inFunction) {
+                        out.append(indent).append("return ").append(value == null ? "null" : expression(value)).append(";\n");
+                    } else {
+                        if (value != null) {
+                            out.append(indent).append("Object ").append(newLocal("result")).append(" = ").append(expression(value)).append(";\n");
+                        }
+                        out.append(indent).append("return;\n");
+                    }
+                    return false;
+                }
+                default:
+                    throw new RuntimeException("Unsupported statement: " + node.get("type"));
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        private String expression(Map<String, Object> node) {
+            switch ((String) node.get("type")) {
+                case "binaryOperation":
+                case "comparison":
+                    return binary((String) node.get("operator"),
+                            expression((Map<String, Object>) node.get("left")),
+                            expression((Map<String, Object>) node.get("right")));
+                case "term":
+                    return expression((Map<String, Object>) node.get("left"));
+                case "factor":
+                    if (node.containsKey("constant")) {
+                        return constant(node.get("constant"));
+                    } else if (node.containsKey("value")) {
+                        String name = (String) node.get("value");
+                        String local = resolve(name);
+                        return local != null ? local : "ctx.lookup(" + javaString(name) + ")";
+                    } else if (node.containsKey("call")) {
+                        return expression((Map<String, Object>) node.get("call"));
+                    } else if (node.containsKey("expression")) {
+                        return expression((Map<String, Object>) node.get("expression"));
+                    } else {
+                        return expression((Map<String, Object>) node.get("array"));
+                    }
+                case "arrayLiteral": {
+                    List<String> elements = new ArrayList<>();
+                    for (Object element : (List<Object>) node.get("elements")) {
+                        elements.add(expression((Map<String, Object>) element));
+                    }
+                    return "SimpleLangInterpreter.account(ctx, SimpleLangArray.of(Arrays.asList(new Object[] {"
+                            + String.join(", ", elements) + "})))";
+                }
+                case "functionCall":
+                    return call((String) node.get("name"), (List<Map<String, Object>>) node.get("arguments"));
+                default:
+                    throw new RuntimeException("Unsupported expression: " + node.get("type"));
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        private String call(String name, List<Map<String, Object>> arguments) {
+            List<String> values = new ArrayList<>();
+            for (Map<String, Object> argument : arguments) {
+                values.add(expression(argument));
+            }
+
+            Map<String, Object> function = program.getFunction(name);
+            if (function == null) {
+                if (SimpleLangBuiltins.isBuiltin(name)) {
+                    return "SimpleLangInterpreter.account(ctx, SimpleLangBuiltins.call(" + javaString(name)
+                            + ", Arrays.asList(new Object[] {" + String.join(", ", values) + "})))";
+                }
+                throw new RuntimeException("Undefined function: " + name);
+            }
+
+            int expected = ((List<String>) function.get("parameters")).size();
+            if (expected != values.size()) {
+                throw new RuntimeException("Function " + name + " expects " + expected + " arguments but got " + values.size() + ".");
+            }
+
+            values.add(0, "ctx");
+            return methodName(name) + "(" + String.join(", ", values) + ")";
+        }
+
+        private String binary(String operator, String left, String right) {
+            return "SimpleLangInterpreter.account(ctx, SimpleLangInterpreter.binaryOperation("
+                    + javaString(operator) + ", " + left + ", " + right + "))";
+        }
+
+        // Literals become static final fields so the boxes are created once per class.
+        private String constant(Object value) {
+            String name = constantNames.get(value);
+            if (name == null) {
+                name = "C" + constantNames.size();
+                constantNames.put(value, name);
+
+                String literal;
+                if (value instanceof Long) {
+                    literal = value + "L";
+                } else if (value instanceof Double) {
+                    literal = value + "d";
+                } else if (value instanceof Boolean) {
+                    literal = (Boolean) value ? "Boolean.TRUE" : "Boolean.FALSE";
+                } else if (value instanceof Character) {
+                    literal = "'" + escape(String.valueOf(value), '\'') + "'";
+                } else {
+                    literal = javaString((String) value);
+                }
+                constants.append("    private static final Object ").append(name).append(" = ").append(literal).append(";\n");
+            }
+            return name;
+        }
+
+        private String resolve(String name) {
+            for (Map<String, String> scope : scopes) {
+                String local = scope.get(name);
+                if (local != null) {
+                    return local;
+                }
+            }
+            return null;
+        }
+
+        private String newLocal(String name) {
+            return "v" + (locals++) + "_" + name;
+        }
+
+        private static String methodName(String function) {
+            return "fn_" + function;
+        }
+
+        private static String javaString(String value) {
+            return "\"" + escape(value, '"') + "\"";
+        }
+
+        private static String escape(String value, char quote) {
+            StringBuilder builder = new StringBuilder();
+            for (char c : value.toCharArray()) {
+                if (c == quote || c == '\\') {
+                    builder.append('\\').append(c);
+                } else if (c == '\n') {
+                    builder.append("\\n");
+                } else if (c == '\r') {
+                    builder.append("\\r");
+                } else if (c == '\t') {
+                    builder.append("\\t");
+                } else if (c < 0x20 || c > 0x7e) {
+                    builder.append(String.format("\\u%04x", (int) c));
+                } else {
+                    builder.append(c);
+                }
+            }
+            return builder.toString();
+        }
+    }
+}
@@ -0,0 +1,365 @@
+// runtime array
+import java.util.Arrays;
+import java.util.List;
+
+public final class SimpleLangArray {
+    private static final long HEADER_BYTES = 16;
+
+    public enum Kind {
+        LONG,
+        DOUBLE,
+        BOOLEAN,
+        OBJECT
+    }
+
+    private final Kind kind;
+    private final long[] longs;
+    private final double[] doubles;
+    private final boolean[] booleans;
+    private final Object[] objects;
+
+    private SimpleLangArray(Kind kind, long[] longs, double[] doubles, boolean[] booleans, Object[] objects) {
+        this.kind = kind;
+        this.longs = longs;
+        this.doubles = doubles;
+        this.booleans = booleans;
+        this.objects = objects;
+    }
+
+    public static SimpleLangArray ofLongs(long[] values) {
+        return new SimpleLangArray(Kind.LONG, values, null, null, null);
+    }
+
+    public static SimpleLangArray ofDoubles(double[] values) {
+        return new SimpleLangArray(Kind.DOUBLE, null, values, null, null);
+    }
+
+    public static SimpleLangArray ofBooleans(boolean[] values) {
+        return new SimpleLangArray(Kind.BOOLEAN, null, null, values, null);
+    }
+
+    // Picks the narrowest storage that holds every element: all naturals become long[], naturals
+    // mixed with reals become double[], all booleans become boolean[], anything else stays boxed.
+    public static SimpleLangArray of(List<Object> elements) {
+        int size = elements.size();
+        boolean allLongs = true;
+        boolean allNumbers = true;
+        boolean allBooleans = true;
+        for (Object element : elements) {
+            allLongs &= element instanceof Long;
+            allNumbers &= element instanceof Long || element instanceof Double;
+            allBooleans &= element instanceof Boolean;
+        }
+
+        if (allLongs) {
+            long[] values = new long[size];
+            for (int i = 0; i < size; i++) {
+                values[i] = (Long) elements.get(i);
+            }
+            return ofLongs(values);
+        } else if (allNumbers) {
+            double[] values = new double[size];
+            for (int i = 0; i < size; i++) {
+                values[i] = ((Number) elements.get(i)).doubleValue();
+            }
+            return ofDoubles(values);
+        } else if (allBooleans) {
+            boolean[] values = new boolean[size];
+            for (int i = 0; i < size; i++) {
+                values[i] = (Boolean) elements.get(i);
+            }
+            return ofBooleans(values);
+        }
+        return new SimpleLangArray(Kind.OBJECT, null, null, null, elements.toArray());
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    public int length() {
+        switch (kind) {
+            case LONG: return longs.length;
+            case DOUBLE: return doubles.length;
+            case BOOLEAN: return booleans.length;
+            default: return objects.length;
+        }
+    }
+
+    public Object get(int index) {
+        switch (kind) {
+            case LONG: return longs[index];
+            case DOUBLE: return doubles[index];
+            case BOOLEAN: return booleans[index];
+            default: return objects[index];
+        }
+    }
+
+    public long byteSize() {
+        switch (kind) {
+            case LONG: return HEADER_BYTES + 8L * longs.length;
+            case DOUBLE: return HEADER_BYTES + 8L * doubles.length;
+            case BOOLEAN: return HEADER_BYTES + booleans.length;
+            default: return HEADER_BYTES + 8L * objects.length;
+        }
+    }
+
+    private boolean isNumeric() {
+        return kind == Kind.LONG || kind == Kind.DOUBLE;
+    }
+
+    private double[] asDoubles() {
+        if (kind == Kind.DOUBLE) {
+            return doubles;
+        }
+        double[] values = new double[longs.length];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = longs[i];
+        }
+        return values;
+    }
+
+    // The bulk operations below are plain counted loops over primitive arrays, with no boxing
+    // per element. C2 may vectorize the simple ones; the division loops (which check for zero),
+    // the double sum (strict evaluation order) and the min/max reductions are unlikely to be.
+    public static SimpleLangArray elementwise(String operator, SimpleLangArray left, SimpleLangArray right) {
+        int size = left.length();
+        if (right.length() != size) {
+            throw new RuntimeException("Array lengths differ: " + size + " and " + right.length() + ".");
+        }
+
+        if (left.kind == Kind.LONG && right.kind == Kind.LONG) {
+            long[] a = left.longs;
+            long[] b = right.longs;
+            long[] result = new long[size];
+            switch (operator) {
+                case "+":
+                    for (int i = 0; i < size; i++) result[i] = a[i] + b[i];
+                    return ofLongs(result);
+                case "-":
+                    for (int i = 0; i < size; i++) result[i] = a[i] - b[i];
+                    return ofLongs(result);
+                case "*":
+                    for (int i = 0; i < size; i++) result[i] = a[i] * b[i];
+                    return ofLongs(result);
+                case "/":
+                    for (int i = 0; i < size; i++) {
+                        if (b[i] == 0) {
+                            throw new RuntimeException("Division by zero.");
+                        }
+                        result[i] = a[i] / b[i];
+                    }
+                    return ofLongs(result);
+                default:
+                    break;
+            }
+        } else if (left.isNumeric() && right.isNumeric()) {
+            double[] a = left.asDoubles();
+            double[] b = right.asDoubles();
+            double[] result = new double[size];
+            switch (operator) {
+                case "+":
+                    for (int i = 0; i < size; i++) result[i] = a[i] + b[i];
+                    return ofDoubles(result);
+                case "-":
+                    for (int i = 0; i < size; i++) result[i] = a[i] - b[i];
+                    return ofDoubles(result);
+                case "*":
+                    for (int i = 0; i < size; i++) result[i] = a[i] * b[i];
+                    return ofDoubles(result);
+                case "/":
+                    for (int i = 0; i < size; i++) result[i] = a[i] / b[i];
+                    return ofDoubles(result);
+                default:
+                    break;
+            }
+        }
+
+        Object[] result = new Object[size];
+        for (int i = 0; i < size; i++) {
+            result[i] = SimpleLangInterpreter.binaryOperation(operator, left.get(i), right.get(i));
+        }
+        return of(Arrays.asList(result));
+    }
+
+    public static SimpleLangArray mapConstant(String operator, SimpleLangArray array, Object constant, boolean constantOnLeft) {
+        int size = array.length();
+
+        if (array.kind == Kind.LONG && constant instanceof Long) {
+            long[] a = array.longs;
+            long k = (Long) constant;
+            long[] result = new long[size];
+            switch (operator) {
+                case "+":
+                    for (int i = 0; i < size; i++) result[i] = a[i] + k;
+                    return ofLongs(result);
+                case "-":
+                    if (constantOnLeft) {
+                        for (int i = 0; i < size; i++) result[i] = k - a[i];
+                    } else {
+                        for (int i = 0; i < size; i++) result[i] = a[i] - k;
+                    }
+                    return ofLongs(result);
+                case "*":
+                    for (int i = 0; i < size; i++) result[i] = a[i] * k;
+                    return ofLongs(result);
+                case "/":
+                    if (constantOnLeft) {
+                        for (int i = 0; i < size; i++) {
+                            if (a[i] == 0) {
+                                throw new RuntimeException("Division by zero.");
+                            }
+                            result[i] = k / a[i];
+                        }
+                    } else {
+                        if (k == 0) {
+                            throw new RuntimeException("Division by zero.");
+                        }
+                        for (int i = 0; i < size; i++) result[i] = a[i] / k;
+                    }
+                    return ofLongs(result);
+                default:
+                    break;
+            }
+        } else if (array.isNumeric() && (constant instanceof Long || constant instanceof Double)) {
+            double[] a = array.asDoubles();
+            double k = ((Number) constant).doubleValue();
+            double[] result = new double[size];
+            switch (operator) {
+                case "+":
+                    for (int i = 0; i < size; i++) result[i] = a[i] + k;
+                    return ofDoubles(result);
+                case "-":
+                    if (constantOnLeft) {
+                        for (int i = 0; i < size; i++) result[i] = k - a[i];
+                    } else {
+                        for (int i = 0; i < size; i++) result[i] = a[i] - k;
+                    }
+                    return ofDoubles(result);
+                case "*":
+                    for (int i = 0; i < size; i++) result[i] = a[i] * k;
+                    return ofDoubles(result);
+                case "/":
+                    if (constantOnLeft) {
+                        for (int i = 0; i < size; i++) result[i] = k / a[i];
+                    } else {
+                        for (int i = 0; i < size; i++) result[i] = a[i] / k;
+                    }
+                    return ofDoubles(result);
+                default:
+                    break;
+            }
+        }
+
+        Object[] result = new Object[size];
+        for (int i = 0; i < size; i++) {
+            result[i] = constantOnLeft
+                    ? SimpleLangInterpreter.binaryOperation(operator, constant, array.get(i))
+                    : SimpleLangInterpreter.binaryOperation(operator, array.get(i), constant);
+        }
+        return of(Arrays.asList(result));
+    }
+
+    public Object sum() {
+        if (kind == Kind.LONG) {
+            long total = 0;
+            for (long value : longs) total += value;
+            return total;
+        } else if (kind == Kind.DOUBLE) {
+            double total = 0;
+            for (double value : doubles) total += value;
+            return total;
+        }
+
+        // Starting from the first element keeps sum(["a", "b"]) equal to "a" + "b".
+        if (length() == 0) {
+            return 0L;
+        }
+        Object total = get(0);
+        for (int i = 1; i < length(); i++) {
+            total = SimpleLangInterpreter.binaryOperation("+", total, get(i));
+        }
+        return total;
+    }
+
+    public Object min() {
+        return extreme(true);
+    }
+
+    public Object max() {
+        return extreme(false);
+    }
+
+    private Object extreme(boolean min) {
+        if (length() == 0) {
+            throw new RuntimeException("Cannot take " + (min ? "min" : "max") + " of an empty array.");
+        }
+
+        if (kind == Kind.LONG) {
+            long result = longs[0];
+            if (min) {
+                for (long value : longs) result = Math.min(result, value);
+            } else {
+                for (long value : longs) result = Math.max(result, value);
+            }
+            return result;
+        } else if (kind == Kind.DOUBLE) {
+            double result = doubles[0];
+            if (min) {
+                for (double value : doubles) result = Math.min(result, value);
+            } else {
+                for (double value : doubles) result = Math.max(result, value);
+            }
+            return result;
+        }
+
+        Object result = get(0);
+        for (int i = 1; i < length(); i++) {
+            Object value = get(i);
+            if (SimpleLangInterpreter.isTruthy(SimpleLangInterpreter.binaryOperation(min ? "<" : ">", value, result))) {
+                result = value;
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) {
+            return true;
+        }
+        if (!(other instanceof SimpleLangArray)) {
+            return false;
+        }
+        SimpleLangArray that = (SimpleLangArray) other;
+        if (kind != that.kind) {
+            return false;
+        }
+        switch (kind) {
+            case LONG: return Arrays.equals(longs, that.longs);
+            case DOUBLE: return Arrays.equals(doubles, that.doubles);
+            case BOOLEAN: return Arrays.equals(booleans, that.booleans);
+            default: return Arrays.equals(objects, that.objects);
+        }
+    }
+
+    @Override
+    public int hashCode() {
+        switch (kind) {
+            case LONG: return Arrays.hashCode(longs);
+            case DOUBLE: return Arrays.hashCode(doubles);
+            case BOOLEAN: return Arrays.hashCode(booleans);
+            default: return Arrays.hashCode(objects);
+        }
+    }
+
+    @Override
+    public String toString() {
+        switch (kind) {
+            case LONG: return Arrays.toString(longs);
+            case DOUBLE: return Arrays.toString(doubles);
+            case BOOLEAN: return Arrays.toString(booleans);
+            default: return Arrays.toString(objects);
+        }
+    }
+}
@@ -0,0 +1,32 @@
+// execution budget
+public final class SimpleLangBudget {
+    public static final int DEFAULT_SLICE_STEPS = 10_000;
+    public static final SimpleLangBudget UNLIMITED = new SimpleLangBudget(Long.MAX_VALUE, Long.MAX_VALUE, DEFAULT_SLICE_STEPS);
+
+    private final long maxSteps;
+    private final long maxAllocatedBytes;
+    private final int sliceSteps;
+
+    // A step is one loop iteration or one function call. After every sliceSteps steps the run
+    // yields its thread so other runs sharing the carrier threads get a turn.
+    public SimpleLangBudget(long maxSteps, long maxAllocatedBytes, int sliceSteps) {
+        if (maxSteps <= 0 || maxAllocatedBytes <= 0 || sliceSteps <= 0) {
+            throw new IllegalArgumentException("Budget limits must be positive.");
+        }
+        this.maxSteps = maxSteps;
+        this.maxAllocatedBytes = maxAllocatedBytes;
+        this.sliceSteps = sliceSteps;
+    }
+
+    public long getMaxSteps() {
+        return maxSteps;
+    }
+
+    public long getMaxAllocatedBytes() {
+        return maxAllocatedBytes;
+    }
+
+    public int getSliceSteps() {
+        return sliceSteps;
+    }
+}
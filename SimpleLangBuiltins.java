@@ -0,0 +1,38 @@
+// built-in functions
+import java.util.List;
+
+public final class SimpleLangBuiltins {
+
+    private SimpleLangBuiltins() {
+    }
+
+    public static boolean isBuiltin(String name) {
+        switch (name) {
+            case "len":
+            case "sum":
+            case "min":
+            case "max":
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    public static Object call(String name, List<Object> arguments) {
+        if (arguments.size() != 1) {
+            throw new RuntimeException("Function " + name + " expects 1 argument but got " + arguments.size() + ".");
+        }
+        if (!(arguments.get(0) instanceof SimpleLangArray)) {
+            throw new RuntimeException("Function " + name + " expects an array but got " + arguments.get(0) + ".");
+        }
+
+        SimpleLangArray array = (SimpleLangArray) arguments.get(0);
+        switch (name) {
+            case "len": return (long) array.length();
+            case "sum": return array.sum();
+            case "min": return array.min();
+            case "max": return array.max();
+            default: throw new RuntimeException("Undefined function: " + name);
+        }
+    }
+}
@@ -0,0 +1,187 @@
+// execution context
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+
+public class SimpleLangContext {
+    private final Scope globals = new Scope(null);
+    private Scope scope = globals;
+
+    private boolean returning;
+    private Object returnValue;
+
+    private final SimpleLangBudget budget;
+    private int fuel;
+    private long stepsGranted;
+    private long allocatedBytes;
+
+    private SimpleLangProfiler profiler;
+    private volatile SimpleLangProfiler.Frame frame;
+    private volatile boolean onCpu;
+
+    public SimpleLangContext() {
+        this(Map.of(), SimpleLangBudget.UNLIMITED);
+    }
+
+    public SimpleLangContext(Map<String, Object> inputs) {
+        this(inputs, SimpleLangBudget.UNLIMITED);
+    }
+
+    public SimpleLangContext(Map<String, Object> inputs, SimpleLangBudget budget) {
+        globals.variables.putAll(inputs);
+        this.budget = budget;
+    }
+
+    public void define(String name, Object value) {
+        scope.variables.put(name, value);
+    }
+
+    public void assign(String name, Object value) {
+        for (Scope s = scope; s != null; s = s.parent) {
+            if (s.variables.containsKey(name)) {
+                s.variables.put(name, value);
+                return;
+            }
+        }
+        throw new RuntimeException("Undefined variable: " + name);
+    }
+
+    public Object lookup(String name) {
+        for (Scope s = scope; s != null; s = s.parent) {
+            Object value = s.variables.get(name);
+            if (value != null || s.variables.containsKey(name)) {
+                return value;
+            }
+        }
+        throw new RuntimeException("Undefined variable: " + name);
+    }
+
+    public Map<String, Object> getGlobals() {
+        return globals.variables;
+    }
+
+    public long getStepsUsed() {
+        return stepsGranted - Math.max(fuel, 0);
+    }
+
+    public long getAllocatedBytes() {
+        return allocatedBytes;
+    }
+
+    public void setProfiler(SimpleLangProfiler profiler) {
+        this.profiler = profiler;
+    }
+
+    SimpleLangProfiler getProfiler() {
+        return profiler;
+    }
+
+    // The frame stack is only maintained while a profiler is attached; the sampler thread reads it.
+    void pushFrame(String name) {
+        frame = new SimpleLangProfiler.Frame(name, frame);
+    }
+
+    void popFrame() {
+        frame = frame.getParent();
+    }
+
+    SimpleLangProfiler.Frame currentFrame() {
+        return frame;
+    }
+
+    // True while the run is executing, false while it waits in a yield; the sampler only counts
+    // contexts that are on a CPU.
+    void setOnCpu(boolean onCpu) {
+        this.onCpu = onCpu;
+    }
+
+    boolean isOnCpu() {
+        return onCpu;
+    }
+
+    // Called at loop back-edges and function calls; the common case is one decrement and compare.
+    public void tick() {
+        if (--fuel < 0) {
+            nextSlice();
+        }
+    }
+
+    private void nextSlice() {
+        // The interrupt flag is left set for the caller; cancellation is not budget exhaustion.
+        if (Thread.currentThread().isInterrupted()) {
+            throw new CancellationException("Execution interrupted after " + getStepsUsed() + " steps.");
+        }
+        long remaining = budget.getMaxSteps() - stepsGranted;
+        if (remaining <= 0) {
+            throw new BudgetExceededException("Step budget of " + budget.getMaxSteps() + " exceeded.");
+        }
+        if (stepsGranted > 0) {
+            boolean wasOnCpu = onCpu;
+            onCpu = false;
+            Thread.yield();
+            onCpu = wasOnCpu;
+        }
+        int slice = (int) Math.min(budget.getSliceSteps(), remaining);
+        stepsGranted += slice;
+        fuel = slice - 1;
+    }
+
+    public void allocate(long bytes) {
+        allocatedBytes += bytes;
+        if (allocatedBytes > budget.getMaxAllocatedBytes()) {
+            throw new BudgetExceededException("Allocation budget of " + budget.getMaxAllocatedBytes() + " bytes exceeded.");
+        }
+    }
+
+    void pushScope() {
+        scope = new Scope(scope);
+    }
+
+    void popScope() {
+        scope = scope.parent;
+    }
+
+    // Function bodies see their own locals and the globals, never the caller's locals.
+    Scope enterFunction() {
+        Scope caller = scope;
+        scope = new Scope(globals);
+        return caller;
+    }
+
+    void exitFunction(Scope caller) {
+        scope = caller;
+    }
+
+    boolean isReturning() {
+        return returning;
+    }
+
+    void setReturn(Object value) {
+        returning = true;
+        returnValue = value;
+    }
+
+    Object takeReturn() {
+        Object value = returnValue;
+        returning = false;
+        returnValue = null;
+        return value;
+    }
+
+    public static class BudgetExceededException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        public BudgetExceededException(String message) {
+            super(message);
+        }
+    }
+
+    static final class Scope {
+        private final Map<String, Object> variables = new HashMap<>(8);
+        private final Scope parent;
+
+        private Scope(Scope parent) {
+            this.parent = parent;
+        }
+    }
+}
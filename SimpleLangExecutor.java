@@ -0,0 +1,56 @@
+// executor
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class SimpleLangExecutor implements AutoCloseable {
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final SimpleLangInterpreter interpreter = new SimpleLangInterpreter();
+    private final SimpleLangBudget budget;
+    private final SimpleLangProfiler profiler;
+
+    public SimpleLangExecutor() {
+        this(SimpleLangBudget.UNLIMITED);
+    }
+
+    // Runs yield at the end of every budget slice, so the virtual-thread scheduler round-robins
+    // between them instead of letting one long loop pin a carrier thread.
+    public SimpleLangExecutor(SimpleLangBudget budget) {
+        this(budget, null);
+    }
+
+    public SimpleLangExecutor(SimpleLangBudget budget, SimpleLangProfiler profiler) {
+        this.budget = budget;
+        this.profiler = profiler;
+    }
+
+    public Future<SimpleLangContext> submit(SimpleLangProgram program) {
+        return submit(program, Map.of());
+    }
+
+    // Each run gets its own context on its own virtual thread; the program itself is never written to.
+    public Future<SimpleLangContext> submit(SimpleLangProgram program, Map<String, Object> inputs) {
+        return executor.submit(() -> {
+            SimpleLangContext context = new SimpleLangContext(inputs, budget);
+            context.setProfiler(profiler);
+            interpreter.execute(program, context);
+            return context;
+        });
+    }
+
+    public Future<Object> submitCall(SimpleLangProgram program, String function, List<Object> arguments) {
+        return executor.submit(() -> {
+            SimpleLangContext context = new SimpleLangContext(Map.of(), budget);
+            context.setProfiler(profiler);
+            interpreter.execute(program, context);
+            return interpreter.call(program, context, function, arguments);
+        });
+    }
+
+    @Override
+    public void close() {
+        executor.close();
+    }
+}
@@ -0,0 +1,63 @@
+// function table
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Function;
+
+// The program-wide table of functions by name, shared by SimpleLangProgram and
+// SimpleLangOptimizer. A lazy body lists the names it declares under "nestedFunctions", so a
+// name is resolved by parsing exactly the bodies that declare it, and a call to a built-in only
+// parses a body that shadows it.
+final class SimpleLangFunctionTable {
+    private final Map<String, Map<String, Object>> functions = new ConcurrentHashMap<>();
+    // For each function name, the unparsed bodies that declare a function of that name somewhere.
+    private final Map<String, List<Map<String, Object>>> declaredIn = new ConcurrentHashMap<>();
+    private final Function<Map<String, Object>, List<Map<String, Object>>> parseBody;
+
+    // parseBody parses a lazy declaration's body and passes the result to collect().
+    SimpleLangFunctionTable(Function<Map<String, Object>, List<Map<String, Object>>> parseBody) {
+        this.parseBody = parseBody;
+    }
+
+    // Parsing one declaring body can append a nested declaring body to the same list, which the
+    // loop then parses too.
+    Map<String, Object> get(String name) {
+        List<Map<String, Object>> declaring = declaredIn.get(name);
+        if (declaring != null) {
+            for (int i = 0; i < declaring.size(); i++) {
+                parseBody.apply(declaring.get(i));
+            }
+        }
+        return functions.get(name);
+    }
+
+    Map<String, Map<String, Object>> asMap() {
+        return Collections.unmodifiableMap(functions);
+    }
+
+    // Of two declarations with the same name the later one in the source wins, as it would if
+    // every body were parsed up front.
+    @SuppressWarnings("unchecked")
+    void collect(List<Map<String, Object>> statements) {
+        for (Map<String, Object> statement : statements) {
+            if ("functionDeclaration".equals(statement.get("type"))) {
+                functions.merge((String) statement.get("name"), statement,
+                        (known, declared) -> position(declared) >= position(known) ? declared : known);
+                if (statement.get("body") != null) {
+                    collect((List<Map<String, Object>>) statement.get("body"));
+                } else if (statement.get("nestedFunctions") != null) {
+                    for (String nested : (List<String>) statement.get("nestedFunctions")) {
+                        declaredIn.computeIfAbsent(nested, k -> new CopyOnWriteArrayList<>()).add(statement);
+                    }
+                }
+            }
+        }
+    }
+
+    private static int position(Map<String, Object> function) {
+        Object position = function.get("position");
+        return position == null ? -1 : (Integer) position;
+    }
+}
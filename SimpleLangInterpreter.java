@@ -0,0 +1,293 @@
+// interpreter
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+public class SimpleLangInterpreter {
+    // Rough heap cost used for allocation accounting, not an exact object size.
+    private static final long STRING_HEADER_BYTES = 24;
+
+    public void execute(SimpleLangProgram program, SimpleLangContext context) {
+        SimpleLangProfiler profiler = context.getProfiler();
+        if (profiler != null) {
+            context.pushFrame(SimpleLangProfiler.MAIN_FRAME);
+            context.setOnCpu(true);
+            profiler.register(context);
+        }
+        try {
+            executeStatements(program, program.getStatements(), context);
+            context.takeReturn();
+        } finally {
+            if (profiler != null) {
+                profiler.unregister(context);
+                context.setOnCpu(false);
+                context.popFrame();
+            }
+        }
+    }
+
+    public Object call(SimpleLangProgram program, SimpleLangContext context, String name, List<Object> arguments) {
+        SimpleLangProfiler profiler = context.getProfiler();
+        if (profiler != null) {
+            context.setOnCpu(true);
+            profiler.register(context);
+        }
+        try {
+            return invoke(program, context, name, arguments);
+        } finally {
+            if (profiler != null) {
+                profiler.unregister(context);
+                context.setOnCpu(false);
+            }
+        }
+    }
+
+    private void executeStatements(SimpleLangProgram program, List<Map<String, Object>> statements, SimpleLangContext context) {
+        for (Map<String, Object> statement : statements) {
+            executeStatement(program, statement, context);
+            if (context.isReturning()) {
+                return;
+            }
+        }
+    }
+
+    private void executeBlock(SimpleLangProgram program, List<Map<String, Object>> statements, SimpleLangContext context) {
+        context.pushScope();
+        try {
+            executeStatements(program, statements, context);
+        } finally {
+            context.popScope();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void executeStatement(SimpleLangProgram program, Map<String, Object> node, SimpleLangContext context) {
+        switch ((String) node.get("type")) {
+            case "variableDeclaration":
+                Map<String, Object> initializer = (Map<String, Object>) node.get("value");
+                context.define((String) node.get("identifier"), initializer == null ? null : evaluate(program, initializer, context));
+                break;
+            case "assignment":
+                context.assign((String) node.get("name"), evaluate(program, (Map<String, Object>) node.get("value"), context));
+                break;
+            case "ifStatement":
+                if (isTruthy(evaluate(program, (Map<String, Object>) node.get("condition"), context))) {
+                    executeBlock(program, (List<Map<String, Object>>) node.get("trueBranch"), context);
+                } else if (node.get("falseBranch") != null) {
+                    executeBlock(program, (List<Map<String, Object>>) node.get("falseBranch"), context);
+                }
+                break;
+            case "whileStatement":
+                executeWhile(program, node, context);
+                break;
+            case "block":
+                executeBlock(program, (List<Map<String, Object>>) node.get("statements"), context);
+                break;
+            case "functionDeclaration":
+                // Functions are resolved from the program's function table.
+                break;
+            case "functionCall":
+                evaluate(program, node, context);
+                break;
+            case "returnStatement":
+                Map<String, Object> value = (Map<String, Object>) node.get("value");
+                context.setReturn(value == null ? null : evaluate(program, value, context));
+                break;
+            default:
+                throw new RuntimeException("Unsupported statement: " + node.get("type"));
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void executeWhile(SimpleLangProgram program, Map<String, Object> node, SimpleLangContext context) {
+        Map<String, Object> condition = (Map<String, Object>) node.get("condition");
+        List<Map<String, Object>> body = (List<Map<String, Object>>) node.get("body");
+        SimpleLangProfiler profiler = context.getProfiler();
+        String label = (String) node.get("loopLabel");
+        if (profiler != null) {
+            context.pushFrame(label);
+        }
+
+        long iterations = 0;
+        try {
+            while (isTruthy(evaluate(program, condition, context))) {
+                context.tick();
+                iterations++;
+                executeBlock(program, body, context);
+                if (context.isReturning()) {
+                    break;
+                }
+            }
+        } finally {
+            if (profiler != null) {
+                context.popFrame();
+                profiler.recordIterations(label, iterations);
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private Object evaluate(SimpleLangProgram program, Map<String, Object> node, SimpleLangContext context) {
+        switch ((String) node.get("type")) {
+            case "binaryOperation":
+            case "comparison":
+                Object left = evaluate(program, (Map<String, Object>) node.get("left"), context);
+                Object right = evaluate(program, (Map<String, Object>) node.get("right"), context);
+                return account(context, binaryOperation((String) node.get("operator"), left, right));
+            case "term":
+                // term() folds * and / into binaryOperation nodes under "left".
+                return evaluate(program, (Map<String, Object>) node.get("left"), context);
+            case "factor":
+                if (node.containsKey("constant")) {
+                    return node.get("constant");
+                } else if (node.containsKey("value")) {
+                    return context.lookup((String) node.get("value"));
+                } else if (node.containsKey("call")) {
+                    return evaluate(program, (Map<String, Object>) node.get("call"), context);
+                } else if (node.containsKey("expression")) {
+                    return evaluate(program, (Map<String, Object>) node.get("expression"), context);
+                } else {
+                    return evaluate(program, (Map<String, Object>) node.get("array"), context);
+                }
+            case "arrayLiteral":
+                List<Object> literal = (List<Object>) node.get("elements");
+                List<Object> elements = new ArrayList<>(literal.size());
+                for (Object element : literal) {
+                    elements.add(evaluate(program, (Map<String, Object>) element, context));
+                }
+                return account(context, SimpleLangArray.of(elements));
+            case "functionCall":
+                List<Object> arguments = new ArrayList<>();
+                for (Map<String, Object> argument : (List<Map<String, Object>>) node.get("arguments")) {
+                    arguments.add(evaluate(program, argument, context));
+                }
+                return invoke(program, context, (String) node.get("name"), arguments);
+            default:
+                throw new RuntimeException("Unsupported expression: " + node.get("type"));
+        }
+    }
+
+    private Object invoke(SimpleLangProgram program, SimpleLangContext context, String name, List<Object> arguments) {
+        SimpleLangProfiler profiler = context.getProfiler();
+        if (profiler == null) {
+            return dispatch(program, context, name, arguments);
+        }
+
+        profiler.recordCall(name);
+        context.pushFrame(name);
+        try {
+            return dispatch(program, context, name, arguments);
+        } finally {
+            context.popFrame();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private Object dispatch(SimpleLangProgram program, SimpleLangContext context, String name, List<Object> arguments) {
+        Map<String, Object> function = program.getFunction(name);
+        if (function == null) {
+            if (SimpleLangBuiltins.isBuiltin(name)) {
+                return account(context, SimpleLangBuiltins.call(name, arguments));
+            }
+            throw new RuntimeException("Undefined function: " + name);
+        }
+        context.tick();
+
+        List<String> parameters = (List<String>) function.get("parameters");
+        if (parameters.size() != arguments.size()) {
+            throw new RuntimeException("Function " + name + " expects " + parameters.size() + " arguments but got " + arguments.size() + ".");
+        }
+
+        SimpleLangContext.Scope caller = context.enterFunction();
+        try {
+            for (int i = 0; i < parameters.size(); i++) {
+                context.define(parameters.get(i), arguments.get(i));
+            }
+            executeStatements(program, program.getFunctionBody(function), context);
+            return context.takeReturn();
+        } finally {
+            context.exitFunction(caller);
+        }
+    }
+
+    public static Object binaryOperation(String operator, Object left, Object right) {
+        switch (operator) {
+            case "==":
+                return left == null ? right == null : left.equals(right);
+            case "!=":
+                return left == null ? right != null : !left.equals(right);
+            case "+":
+                if (left instanceof String || right instanceof String) {
+                    return String.valueOf(left) + right;
+                }
+                break;
+            default:
+                break;
+        }
+
+        if (left instanceof SimpleLangArray && right instanceof SimpleLangArray) {
+            return SimpleLangArray.elementwise(operator, (SimpleLangArray) left, (SimpleLangArray) right);
+        } else if (left instanceof SimpleLangArray) {
+            return SimpleLangArray.mapConstant(operator, (SimpleLangArray) left, right, false);
+        } else if (right instanceof SimpleLangArray) {
+            return SimpleLangArray.mapConstant(operator, (SimpleLangArray) right, left, true);
+        }
+
+        if (left instanceof Long && right instanceof Long) {
+            long a = (Long) left;
+            long b = (Long) right;
+            switch (operator) {
+                case "+": return a + b;
+                case "-": return a - b;
+                case "*": return a * b;
+                case "/":
+                    if (b == 0) {
+                        throw new RuntimeException("Division by zero.");
+                    }
+                    return a / b;
+                case "<": return a < b;
+                case ">": return a > b;
+                case "<=": return a <= b;
+                case ">=": return a >= b;
+                default: break;
+            }
+        } else if (left instanceof Number && right instanceof Number) {
+            double a = ((Number) left).doubleValue();
+            double b = ((Number) right).doubleValue();
+            switch (operator) {
+                case "+": return a + b;
+                case "-": return a - b;
+                case "*": return a * b;
+                case "/": return a / b;
+                case "<": return a < b;
+                case ">": return a > b;
+                case "<=": return a <= b;
+                case ">=": return a >= b;
+                default: break;
+            }
+        }
+        throw new RuntimeException("Unsupported operands for '" + operator + "': " + left + ", " + right);
+    }
+
+    public static Object account(SimpleLangContext context, Object value) {
+        if (value instanceof String) {
+            context.allocate(STRING_HEADER_BYTES + 2L * ((String) value).length());
+        } else if (value instanceof SimpleLangArray) {
+            context.allocate(((SimpleLangArray) value).byteSize());
+        }
+        return value;
+    }
+
+    public static boolean isTruthy(Object value) {
+        if (value instanceof Boolean) {
+            return (Boolean) value;
+        } else if (value instanceof Long) {
+            return (Long) value != 0;
+        } else if (value instanceof Double) {
+            return (Double) value != 0.0;
+        } else if (value instanceof String) {
+            return !((String) value).isEmpty();
+        }
+        return value != null;
+    }
+}
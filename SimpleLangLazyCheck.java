@@ -0,0 +1,91 @@
+// lazy parsing check
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Runs each script compiled eagerly, lazily and with the optimizer and fails if the globals
+// differ, which covers the lexer, the parser's lazy mode and name resolution for lazy bodies.
+// Usage: java SimpleLangLazyCheck
+public class SimpleLangLazyCheck {
+    public static void main(String[] args) {
+        check("nested function shadowing a built-in",
+                "function outer() { function sum(a) { return 42; } return 0; } var r = sum([1, 2]);",
+                Map.of("r", 42L));
+
+        check("built-in not shadowed",
+                "function outer() { function other(a) { return 42; } return 0; } var r = sum([1, 2]);",
+                Map.of("r", 3L));
+
+        check("function nested two levels deep",
+                "function a() { function b() { function deep(x) { return x + 1; } return 0; } return 0; } "
+                        + "var r = deep(4);",
+                Map.of("r", 5L));
+
+        // The later declaration wins, whichever body is parsed first.
+        check("duplicate name, nested one later",
+                "function f(a) { return 1; } function outer() { function f(a) { return 2; } return 0; } var r = f(0);",
+                Map.of("r", 2L));
+
+        check("duplicate name, nested one earlier",
+                "function outer() { function f(a) { return 2; } return 0; } function f(a) { return 1; } var r = f(0);",
+                Map.of("r", 1L));
+
+        check("duplicate name at the top level",
+                "function f() { return 1; } function f() { return 2; } var r = f();",
+                Map.of("r", 2L));
+
+        // Identifiers that start with a keyword are identifiers.
+        check("keyword prefixes",
+                "var variable = 1; var whilex = 2; var iffy = 3; var returned = 4; var functional = 5; "
+                        + "var elsewhere = 6; var truely = 7; "
+                        + "function functionx(whilex) { var variable = whilex * 2; return variable; } "
+                        + "var r = functionx(variable + whilex + iffy + returned + functional + elsewhere + truely);",
+                Map.of("r", 56L));
+
+        check("operators and literals",
+                "var a = 10 >= 3; var b = 2 <= 1; var c = 3 != 4; var d = 2.5 * 2; var e = \"x\" + 'y'; "
+                        + "var f = 100 / 5 / 2; var g = 2 * 3 * 4;",
+                Map.of("a", true, "b", false, "c", true, "d", 5.0, "e", "xy", "f", 10L, "g", 24L));
+
+        checkRejected("syntax error in an unreachable body",
+                "function dead() { var = ; } var x = 1;");
+
+        System.out.println("Lazy parsing check passed.");
+    }
+
+    private static void check(String name, String source, Map<String, Object> expected) {
+        List<Map<String, Object>> results = new ArrayList<>();
+        results.add(run(SimpleLangProgram.compile(source)));
+        results.add(run(SimpleLangProgram.compileLazy(source)));
+        results.add(run(SimpleLangProgram.compile(source, new SimpleLangOptimizer())));
+
+        for (Map<String, Object> result : results) {
+            if (!result.entrySet().containsAll(expected.entrySet())) {
+                throw new RuntimeException(name + ": expected " + expected + " but got " + results
+                        + " (eager, lazy, optimized)");
+            }
+        }
+    }
+
+    // compileLazy only reports errors in bodies it parses, so only the eager overloads are checked.
+    private static void checkRejected(String name, String source) {
+        rejected(name + " (eager)", () -> SimpleLangProgram.compile(source));
+        rejected(name + " (optimized)", () -> SimpleLangProgram.compile(source, new SimpleLangOptimizer()));
+    }
+
+    private static void rejected(String name, Runnable compile) {
+        try {
+            compile.run();
+        } catch (RuntimeException e) {
+            return;
+        }
+        throw new RuntimeException(name + ": compiled without a parse error");
+    }
+
+    private static Map<String, Object> run(SimpleLangProgram program) {
+        SimpleLangContext context = new SimpleLangContext();
+        new SimpleLangInterpreter().execute(program, context);
+        return new HashMap<>(context.getGlobals());
+    }
+}
@@ -6,23 +6,31 @@ import java.util.regex.Pattern;
 
 public class SimpleLangLexer {
 
+    // One matcher per token type is reused for the whole input; each attempt is anchored at the
+    // current index through the region, so lexing never copies the rest of the input.
     public List<Token> lex(String input) {
         List<Token> tokens = new ArrayList<>();
+        TokenType[] types = TokenType.values();
+        Matcher[] matchers = new Matcher[types.length];
+        for (int i = 0; i < types.length; i++) {
+            matchers[i] = types[i].pattern.matcher(input);
+        }
         int index = 0;
 
         while (index < input.length()) {
             boolean matched = false;
 
-            for (TokenType type : TokenType.values()) {
-                Matcher matcher = type.pattern.matcher(input.substring(index));
-                if (matcher.find() && matcher.start() == 0) {
+            for (int i = 0; i < types.length; i++) {
+                TokenType type = types[i];
+                Matcher matcher = matchers[i].region(index, input.length());
+                if (matcher.lookingAt()) {
                     String lexeme = matcher.group().trim();
 
                     if (type != TokenType.WHITESPACE) {
                         tokens.add(new Token(lexeme, type));
                     }
 
-                    index += matcher.end();
+                    index = matcher.end();
                     matched = true;
                     break;
                 }
@@ -39,10 +47,10 @@ public class SimpleLangLexer {
     public enum TokenType {
         REAL_LITERAL("\\d+\\.\\d+"),
         NATURAL_LITERAL("\\d+"),
-        BOOL_LITERAL("true|false"),
+        BOOL_LITERAL("(?:true|false)\\b"),
         CHAR_LITERAL("'[^']'"),
         STRING_LITERAL("\"[^\"]*\""),
-        KEYWORD("var|if|else|function|return"),
+        KEYWORD("(?:var|if|else|while|function|return)\\b"),
         PLUS("\\+"),
         MINUS("-"),
         MULTIPLY("\\*"),
@@ -50,10 +58,10 @@ public class SimpleLangLexer {
         EXPONENT("\\^"),
         EQUALS("=="),
         NOT_EQUALS("!="),
-        GREATER_THAN(">"),
-        LESS_THAN("<"),
         GREATER_EQUAL(">="),
         LESS_EQUAL("<="),
+        GREATER_THAN(">"),
+        LESS_THAN("<"),
         AND("&&"),
         OR("\\|\\|"),
         NOT("!"),
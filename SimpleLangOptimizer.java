@@ -0,0 +1,625 @@
+// whole-program optimizer
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+public class SimpleLangOptimizer {
+    private static final int INLINE_NODE_LIMIT = 40;
+    private static final String[] STATEMENT_LISTS = {"statements", "trueBranch", "falseBranch", "body"};
+
+    private final Set<String> entryFunctions;
+    private final Set<String> liveGlobals;
+
+    private SimpleLangFunctionTable functions;
+    private Map<String, Set<String>> callGraph;
+
+    public SimpleLangOptimizer() {
+        this(Set.of(), null);
+    }
+
+    // entryFunctions are functions the host calls directly; liveGlobals are the globals the host
+    // reads after a run, or null to keep every top-level declaration and every write to a name
+    // not declared in the enclosing function, since that may be a global the host passed in.
+    public SimpleLangOptimizer(Set<String> entryFunctions, Set<String> liveGlobals) {
+        this.entryFunctions = entryFunctions;
+        this.liveGlobals = liveGlobals;
+    }
+
+    @SuppressWarnings("unchecked")
+    public Map<String, Object> optimize(Map<String, Object> program) {
+        Map<String, Object> node = (Map<String, Object>) copy(program);
+        List<Map<String, Object>> statements = (List<Map<String, Object>>) node.get("statements");
+
+        // Reachability runs first so that lazily parsed programs only parse reachable bodies.
+        analyze(statements);
+        removeUnreachableFunctions(node, reachableFunctions(statements));
+        removeAfterReturn(node);
+        inlineCalls(statements, true);
+        inlineExpressions(node);
+        analyze(statements);
+        removeUnreachableFunctions(node, reachableFunctions(statements));
+        removeUnusedVariables(node, statements);
+
+        return node;
+    }
+
+    // call graph
+
+    private void analyze(List<Map<String, Object>> statements) {
+        functions = new SimpleLangFunctionTable(this::body);
+        callGraph = new HashMap<>();
+        functions.collect(statements);
+    }
+
+    private Map<String, Object> function(String name) {
+        return functions.get(name);
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<Map<String, Object>> body(Map<String, Object> function) {
+        List<Map<String, Object>> body = (List<Map<String, Object>>) function.get("body");
+        if (body == null) {
+            body = SimpleLangParser.parseFunctionBody(function);
+            function.put("body", body);
+            function.remove("bodyTokens");
+            function.remove("bodyStart");
+            function.remove("nestedFunctions");
+            functions.collect(body);
+        }
+        return body;
+    }
+
+    private Set<String> callees(String name) {
+        Set<String> callees = callGraph.get(name);
+        if (callees == null) {
+            callees = new HashSet<>();
+            Map<String, Object> function = function(name);
+            if (function != null) {
+                collectCalls(body(function), callees);
+            }
+            callGraph.put(name, callees);
+        }
+        return callees;
+    }
+
+    // Nested function declarations are skipped: their calls belong to their own call-graph node.
+    @SuppressWarnings("unchecked")
+    private static void collectCalls(Object value, Set<String> callees) {
+        if (value instanceof Map) {
+            Map<String, Object> node = (Map<String, Object>) value;
+            if ("functionDeclaration".equals(node.get("type"))) {
+                return;
+            }
+            if ("functionCall".equals(node.get("type"))) {
+                callees.add((String) node.get("name"));
+            }
+            for (Object child : node.values()) {
+                collectCalls(child, callees);
+            }
+        } else if (value instanceof List) {
+            for (Object child : (List<Object>) value) {
+                collectCalls(child, callees);
+            }
+        }
+    }
+
+    private Set<String> reachableFunctions(List<Map<String, Object>> statements) {
+        Set<String> reachable = new HashSet<>();
+        Deque<String> pending = new ArrayDeque<>(entryFunctions);
+        Set<String> roots = new HashSet<>();
+        collectCalls(statements, roots);
+        pending.addAll(roots);
+
+        while (!pending.isEmpty()) {
+            String name = pending.pop();
+            if (function(name) != null && reachable.add(name)) {
+                pending.addAll(callees(name));
+            }
+        }
+        return reachable;
+    }
+
+    private boolean isRecursive(String name) {
+        Set<String> seen = new HashSet<>();
+        Deque<String> pending = new ArrayDeque<>(callees(name));
+        while (!pending.isEmpty()) {
+            String callee = pending.pop();
+            if (callee.equals(name)) {
+                return true;
+            }
+            if (seen.add(callee)) {
+                pending.addAll(callees(callee));
+            }
+        }
+        return false;
+    }
+
+    // dead code
+
+    @SuppressWarnings("unchecked")
+    private static void removeAfterReturn(Object value) {
+        if (value instanceof Map) {
+            Map<String, Object> node = (Map<String, Object>) value;
+            for (String key : STATEMENT_LISTS) {
+                Object statements = node.get(key);
+                if (statements instanceof List) {
+                    List<Object> list = (List<Object>) statements;
+                    // Declarations after a return are still registered by name, so they stay.
+                    for (int i = 0; i < list.size(); i++) {
+                        if ("returnStatement".equals(((Map<String, Object>) list.get(i)).get("type"))) {
+                            list.subList(i + 1, list.size()).removeIf(
+                                    statement -> !"functionDeclaration".equals(((Map<String, Object>) statement).get("type")));
+                            break;
+                        }
+                    }
+                }
+            }
+            for (Object child : node.values()) {
+                removeAfterReturn(child);
+            }
+        } else if (value instanceof List) {
+            for (Object child : (List<Object>) value) {
+                removeAfterReturn(child);
+            }
+        }
+    }
+
+    // Functions live in one program-wide table, so a reachable function declared inside an
+    // unreachable one is hoisted into its parent's place instead of being dropped with it.
+    @SuppressWarnings("unchecked")
+    private static void removeUnreachableFunctions(Object value, Set<String> reachable) {
+        if (value instanceof Map) {
+            for (Object child : ((Map<String, Object>) value).values()) {
+                removeUnreachableFunctions(child, reachable);
+            }
+        } else if (value instanceof List) {
+            List<Object> list = (List<Object>) value;
+            for (int i = 0; i < list.size(); i++) {
+                Object child = list.get(i);
+                if (child instanceof Map && "functionDeclaration".equals(((Map<String, Object>) child).get("type"))
+                        && !reachable.contains(((Map<String, Object>) child).get("name"))) {
+                    list.remove(i);
+                    list.addAll(i, nestedFunctions((Map<String, Object>) child));
+                    i--;
+                } else {
+                    removeUnreachableFunctions(child, reachable);
+                }
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Object> nestedFunctions(Map<String, Object> function) {
+        List<Object> nested = new ArrayList<>();
+        if (function.get("body") != null) {
+            for (Map<String, Object> statement : (List<Map<String, Object>>) function.get("body")) {
+                if ("functionDeclaration".equals(statement.get("type"))) {
+                    nested.add(statement);
+                }
+            }
+        }
+        return nested;
+    }
+
+    // A variable is dropped, declarations and assignments together, only when nothing reads the
+    // name anywhere in the program and none of its writes contain a call, so no side effect is lost.
+    private void removeUnusedVariables(Map<String, Object> program, List<Map<String, Object>> topLevel) {
+        // Dropping one write can leave the variables it read unused, so repeat until nothing changes.
+        while (removeUnusedVariablesOnce(program, topLevel)) {
+        }
+    }
+
+    private boolean removeUnusedVariablesOnce(Map<String, Object> program, List<Map<String, Object>> topLevel) {
+        Set<String> live = new HashSet<>();
+        collectReads(program, live);
+        collectWritesWithCalls(program, live);
+        if (liveGlobals != null) {
+            live.addAll(liveGlobals);
+        } else {
+            for (Map<String, Object> statement : topLevel) {
+                if ("variableDeclaration".equals(statement.get("type"))) {
+                    live.add((String) statement.get("identifier"));
+                }
+            }
+        }
+        Set<String> locals = new HashSet<>();
+        collectDeclarations(topLevel, locals);
+        return removeWrites(program, live, locals);
+    }
+
+    // locals are the names declared in the enclosing function (or at the top level). Without
+    // liveGlobals an assignment to any other name may set a global the host passed in and reads
+    // afterwards, so only assignments to locals are dropped then.
+    @SuppressWarnings("unchecked")
+    private boolean removeWrites(Object value, Set<String> live, Set<String> locals) {
+        boolean removed = false;
+        if (value instanceof Map) {
+            Map<String, Object> node = (Map<String, Object>) value;
+            if ("functionDeclaration".equals(node.get("type"))) {
+                locals = new HashSet<>((List<String>) node.get("parameters"));
+                collectDeclarations(node.get("body"), locals);
+            }
+            for (Object child : node.values()) {
+                removed |= removeWrites(child, live, locals);
+            }
+        } else if (value instanceof List) {
+            Iterator<Object> iterator = ((List<Object>) value).iterator();
+            while (iterator.hasNext()) {
+                Object child = iterator.next();
+                String name = writtenName(child);
+                if (name != null && !live.contains(name) && (liveGlobals != null || locals.contains(name))) {
+                    iterator.remove();
+                    removed = true;
+                } else {
+                    removed |= removeWrites(child, live, locals);
+                }
+            }
+        }
+        return removed;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void collectWritesWithCalls(Object value, Set<String> names) {
+        if (value instanceof Map) {
+            String name = writtenName(value);
+            if (name != null && hasCall(((Map<String, Object>) value).get("value"))) {
+                names.add(name);
+            }
+            for (Object child : ((Map<String, Object>) value).values()) {
+                collectWritesWithCalls(child, names);
+            }
+        } else if (value instanceof List) {
+            for (Object child : (List<Object>) value) {
+                collectWritesWithCalls(child, names);
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static String writtenName(Object value) {
+        if (!(value instanceof Map)) {
+            return null;
+        }
+        Map<String, Object> node = (Map<String, Object>) value;
+        if ("variableDeclaration".equals(node.get("type"))) {
+            return (String) node.get("identifier");
+        } else if ("assignment".equals(node.get("type"))) {
+            return (String) node.get("name");
+        }
+        return null;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void collectReads(Object value, Set<String> read) {
+        if (value instanceof Map) {
+            Map<String, Object> node = (Map<String, Object>) value;
+            if ("factor".equals(node.get("type")) && node.get("value") instanceof String
+                    && isIdentifier((String) node.get("value"))) {
+                read.add((String) node.get("value"));
+            }
+            for (Object child : node.values()) {
+                collectReads(child, read);
+            }
+        } else if (value instanceof List) {
+            for (Object child : (List<Object>) value) {
+                collectReads(child, read);
+            }
+        }
+    }
+
+    // inlining
+
+    @SuppressWarnings("unchecked")
+    private void inlineCalls(List<Map<String, Object>> statements, boolean topLevel) {
+        for (int i = 0; i < statements.size(); i++) {
+            Map<String, Object> statement = statements.get(i);
+            if ("functionCall".equals(statement.get("type"))) {
+                Map<String, Object> inlined = inline(statement, topLevel);
+                if (inlined != null) {
+                    statements.set(i, inlined);
+                }
+                continue;
+            }
+            for (String key : STATEMENT_LISTS) {
+                if (statement.get(key) instanceof List) {
+                    inlineCalls((List<Map<String, Object>>) statement.get(key), false);
+                }
+            }
+        }
+    }
+
+    // Replaces a call statement with a block that binds the arguments to the parameters and runs
+    // a copy of the body. Blocks get their own scope, so the parameters do not leak to the caller.
+    @SuppressWarnings("unchecked")
+    private Map<String, Object> inline(Map<String, Object> call, boolean topLevel) {
+        String name = (String) call.get("name");
+        Map<String, Object> function = function(name);
+        if (function == null || isRecursive(name)) {
+            return null;
+        }
+
+        List<String> parameters = (List<String>) function.get("parameters");
+        List<Map<String, Object>> arguments = (List<Map<String, Object>>) call.get("arguments");
+        List<Map<String, Object>> body = (List<Map<String, Object>>) copy(body(function));
+        if (parameters.size() != arguments.size() || countNodes(body) > INLINE_NODE_LIMIT) {
+            return null;
+        }
+
+        // A trailing return's value is discarded at a call statement, so it can only go when
+        // evaluating it could not fail; any other return would leave the caller, so such
+        // functions are not inlined.
+        if (!body.isEmpty() && "returnStatement".equals(body.get(body.size() - 1).get("type"))) {
+            Object value = body.get(body.size() - 1).get("value");
+            if (value != null && !isLiteral(value)) {
+                return null;
+            }
+            body.remove(body.size() - 1);
+        }
+        if (contains(body, "returnStatement") || contains(body, "functionDeclaration")) {
+            return null;
+        }
+
+        // Function bodies only see their own locals and the globals. Outside the top level the
+        // caller's locals could shadow a global the body uses, so only self-contained bodies move there.
+        Set<String> locals = new HashSet<>(parameters);
+        collectDeclarations(body, locals);
+        if (!topLevel && !referencesOnly(body, locals)) {
+            return null;
+        }
+
+        // Arguments are evaluated inside the new block, after earlier parameters are bound.
+        Set<String> argumentReads = new HashSet<>();
+        collectReads(arguments, argumentReads);
+        for (String parameter : parameters) {
+            if (argumentReads.contains(parameter)) {
+                return null;
+            }
+        }
+
+        List<Map<String, Object>> blockStatements = new ArrayList<>();
+        for (int i = 0; i < parameters.size(); i++) {
+            Map<String, Object> declaration = new HashMap<>();
+            declaration.put("type", "variableDeclaration");
+            declaration.put("identifier", parameters.get(i));
+            declaration.put("value", arguments.get(i));
+            blockStatements.add(declaration);
+        }
+        blockStatements.addAll(body);
+
+        Map<String, Object> block = new HashMap<>();
+        block.put("type", "block");
+        block.put("statements", blockStatements);
+        return block;
+    }
+
+    // Calls used as values are inlined when the callee's whole body is "return <expression>" and
+    // that expression reads only the parameters. The arguments are substituted for the parameters
+    // directly, so they must be free of calls, and each one must be used exactly once, so it is
+    // still evaluated exactly once; only a literal may be repeated or dropped.
+    @SuppressWarnings("unchecked")
+    private void inlineExpressions(Object value) {
+        if (value instanceof Map) {
+            Map<String, Object> node = (Map<String, Object>) value;
+            for (Object child : node.values()) {
+                inlineExpressions(child);
+            }
+            if ("factor".equals(node.get("type")) && node.get("call") != null) {
+                Map<String, Object> inlined = inlineExpression((Map<String, Object>) node.get("call"));
+                if (inlined != null) {
+                    node.remove("call");
+                    node.put("expression", inlined);
+                }
+            }
+        } else if (value instanceof List) {
+            for (Object child : (List<Object>) value) {
+                inlineExpressions(child);
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, Object> inlineExpression(Map<String, Object> call) {
+        String name = (String) call.get("name");
+        Map<String, Object> function = function(name);
+        if (function == null || isRecursive(name)) {
+            return null;
+        }
+
+        List<String> parameters = (List<String>) function.get("parameters");
+        List<Map<String, Object>> arguments = (List<Map<String, Object>>) call.get("arguments");
+        List<Map<String, Object>> body = body(function);
+        if (parameters.size() != arguments.size() || body.size() != 1
+                || !"returnStatement".equals(body.get(0).get("type")) || body.get(0).get("value") == null) {
+            return null;
+        }
+
+        Map<String, Object> expression = (Map<String, Object>) body.get(0).get("value");
+        if (countNodes(expression) > INLINE_NODE_LIMIT || !referencesOnly(expression, new HashSet<>(parameters))
+                || hasCall(arguments)) {
+            return null;
+        }
+
+        Map<String, Map<String, Object>> substitutions = new HashMap<>();
+        for (int i = 0; i < parameters.size(); i++) {
+            if (!isLiteral(arguments.get(i)) && countReads(expression, parameters.get(i)) != 1) {
+                return null;
+            }
+            substitutions.put(parameters.get(i), arguments.get(i));
+        }
+        return (Map<String, Object>) substitute(expression, substitutions);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Object substitute(Object value, Map<String, Map<String, Object>> substitutions) {
+        if (value instanceof Map) {
+            Map<String, Object> node = (Map<String, Object>) value;
+            if ("factor".equals(node.get("type")) && substitutions.containsKey(node.get("value"))) {
+                Map<String, Object> factor = new HashMap<>();
+                factor.put("type", "factor");
+                factor.put("expression", copy(substitutions.get(node.get("value"))));
+                return factor;
+            }
+            Map<String, Object> copy = new HashMap<>();
+            for (Map.Entry<String, Object> entry : node.entrySet()) {
+                copy.put(entry.getKey(), substitute(entry.getValue(), substitutions));
+            }
+            return copy;
+        } else if (value instanceof List) {
+            List<Object> copy = new ArrayList<>();
+            for (Object element : (List<Object>) value) {
+                copy.add(substitute(element, substitutions));
+            }
+            return copy;
+        }
+        return value;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static int countReads(Object value, String name) {
+        int count = 0;
+        if (value instanceof Map) {
+            Map<String, Object> node = (Map<String, Object>) value;
+            if ("factor".equals(node.get("type")) && name.equals(node.get("value"))) {
+                count++;
+            }
+            for (Object child : node.values()) {
+                count += countReads(child, name);
+            }
+        } else if (value instanceof List) {
+            for (Object child : (List<Object>) value) {
+                count += countReads(child, name);
+            }
+        }
+        return count;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void collectDeclarations(Object value, Set<String> names) {
+        if (value instanceof Map) {
+            Map<String, Object> node = (Map<String, Object>) value;
+            if ("variableDeclaration".equals(node.get("type"))) {
+                names.add((String) node.get("identifier"));
+            } else if ("functionDeclaration".equals(node.get("type"))) {
+                // A nested function's variables are its own.
+                return;
+            }
+            for (Object child : node.values()) {
+                collectDeclarations(child, names);
+            }
+        } else if (value instanceof List) {
+            for (Object child : (List<Object>) value) {
+                collectDeclarations(child, names);
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static boolean referencesOnly(Object value, Set<String> names) {
+        if (value instanceof Map) {
+            Map<String, Object> node = (Map<String, Object>) value;
+            if ("factor".equals(node.get("type")) && node.get("value") instanceof String
+                    && isIdentifier((String) node.get("value")) && !names.contains(node.get("value"))) {
+                return false;
+            }
+            if ("assignment".equals(node.get("type")) && !names.contains(node.get("name"))) {
+                return false;
+            }
+            for (Object child : node.values()) {
+                if (!referencesOnly(child, names)) {
+                    return false;
+                }
+            }
+        } else if (value instanceof List) {
+            for (Object child : (List<Object>) value) {
+                if (!referencesOnly(child, names)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    // helper methods
+
+    private static boolean hasCall(Object value) {
+        return contains(value, "functionCall");
+    }
+
+    @SuppressWarnings("unchecked")
+    private static boolean contains(Object value, String type) {
+        if (value instanceof Map) {
+            Map<String, Object> node = (Map<String, Object>) value;
+            if (type.equals(node.get("type"))) {
+                return true;
+            }
+            for (Object child : node.values()) {
+                if (contains(child, type)) {
+                    return true;
+                }
+            }
+        } else if (value instanceof List) {
+            for (Object child : (List<Object>) value) {
+                if (contains(child, type)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static int countNodes(Object value) {
+        int count = 0;
+        if (value instanceof Map) {
+            count++;
+            for (Object child : ((Map<String, Object>) value).values()) {
+                count += countNodes(child);
+            }
+        } else if (value instanceof List) {
+            for (Object child : (List<Object>) value) {
+                count += countNodes(child);
+            }
+        }
+        return count;
+    }
+
+    // A number, string, character or boolean literal, possibly wrapped in a term node.
+    @SuppressWarnings("unchecked")
+    private static boolean isLiteral(Object value) {
+        Map<String, Object> node = (Map<String, Object>) value;
+        while ("term".equals(node.get("type"))) {
+            node = (Map<String, Object>) node.get("left");
+        }
+        return "factor".equals(node.get("type")) && (node.containsKey("constant")
+                || node.get("value") instanceof String && !isIdentifier((String) node.get("value")));
+    }
+
+    private static boolean isIdentifier(String lexeme) {
+        char first = lexeme.charAt(0);
+        return (Character.isLetter(first) || first == '_') && !"true".equals(lexeme) && !"false".equals(lexeme);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Object copy(Object value) {
+        if (value instanceof Map) {
+            Map<String, Object> copy = new HashMap<>();
+            for (Map.Entry<String, Object> entry : ((Map<String, Object>) value).entrySet()) {
+                copy.put(entry.getKey(), copy(entry.getValue()));
+            }
+            return copy;
+        } else if (value instanceof List) {
+            List<Object> copy = new ArrayList<>();
+            for (Object element : (List<Object>) value) {
+                copy.add(copy(element));
+            }
+            return copy;
+        }
+        return value;
+    }
+}
@@ -0,0 +1,165 @@
+// optimizer check
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Runs each script with and without the optimizer and fails if the globals differ or the
+// optimized tree still has what the optimizer was expected to remove.
+// Usage: java SimpleLangOptimizerCheck
+public class SimpleLangOptimizerCheck {
+    public static void main(String[] args) {
+        // Statement-level calls become blocks.
+        check("statement inlining",
+                "var n = 0; function bump(k) { n = n + k; } bump(2); bump(3);",
+                null, Map.of("bump", 0), Set.of());
+
+        // A single-return body replaces the call inside an expression, here in a loop.
+        check("expression inlining",
+                "function add(a, b) { return a + b; } var t = 0; var i = 0; "
+                        + "while (i < 5) { t = add(t, i); i = i + 1; }",
+                null, Map.of("add", 0), Set.of());
+
+        // A variable argument used twice is not duplicated, a constant one is.
+        check("expression inlining with a repeated parameter",
+                "function sq(x) { return x * x; } var s = sq(7); var u = 3; var w = sq(u);",
+                null, Map.of("sq", 1), Set.of());
+
+        check("recursive functions are not inlined",
+                "function fact(n) { if (n < 2) { return 1; } return n * fact(n - 1); } var r = fact(5);",
+                null, Map.of("fact", 2), Set.of());
+
+        check("unreachable functions",
+                "function dead() { return 1; } function live() { var x = 2; return x; } var r = live();",
+                null, Map.of(), Set.of("dead"));
+
+        check("unreachable nested functions",
+                "function outer() { function inner() { return 1; } return 0; } var r = 2;",
+                null, Map.of(), Set.of("outer", "inner"));
+
+        check("unused variables",
+                "var kept = 1; var dropped = 2; function f(a) { var unused = a * 3; var used = a + 1; "
+                        + "kept = kept + used; } f(4);",
+                Set.of("kept"), Map.of(), Set.of("dropped", "unused"));
+
+        check("statements after return",
+                "var r = 0; function g() { r = 1; return 0; r = 2; } g();",
+                null, Map.of(), Set.of());
+
+        // Functions declared after a return are still registered, so truncation keeps them.
+        check("function declared after return",
+                "function f() { return g(3); function g(n) { var t = n; t = t + 1; return t; } } var x = f();",
+                null, Map.of(), Set.of());
+
+        check("function declared after a top-level return",
+                "var x = f(); return 0; function f() { var y = 7; return y; }",
+                null, Map.of(), Set.of());
+
+        // Without liveGlobals, writes to globals the host passed in are kept.
+        check("assignment to a host global", Map.of("out", 0L),
+                "out = 5; function g() { var t = 2; out = t; } g();",
+                null, Map.of(), Set.of());
+
+        // Inlining must not drop an expression whose evaluation fails.
+        check("trailing return value that fails",
+                "function f() { var q = 1; return undefinedvar; } f();",
+                null, Map.of(), Set.of());
+
+        check("unused argument that fails",
+                "function d(a) { return 1; } var r = d(1 / 0);",
+                null, Map.of(), Set.of());
+
+        System.out.println("Optimizer check passed.");
+    }
+
+    private static void check(String name, String source, Set<String> liveGlobals, Map<String, Integer> calls,
+                              Set<String> removed) {
+        check(name, Map.of(), source, liveGlobals, calls, removed);
+    }
+
+    // calls maps a function name to the number of calls to it left in the optimized tree;
+    // removed names must no longer be declared anywhere in it. A run that fails must fail with
+    // the same message either way.
+    private static void check(String name, Map<String, Object> inputs, String source, Set<String> liveGlobals,
+                              Map<String, Integer> calls, Set<String> removed) {
+        SimpleLangOptimizer optimizer = liveGlobals == null ? new SimpleLangOptimizer()
+                : new SimpleLangOptimizer(Set.of(), liveGlobals);
+        SimpleLangProgram original = SimpleLangProgram.compile(source);
+        SimpleLangProgram optimized = SimpleLangProgram.compile(source, optimizer);
+
+        Map<String, Object> expected = run(original, inputs);
+        Map<String, Object> actual = run(optimized, inputs);
+        if (liveGlobals != null) {
+            expected.keySet().retainAll(liveGlobals);
+            actual.keySet().retainAll(liveGlobals);
+        }
+        if (!expected.equals(actual)) {
+            throw new RuntimeException(name + ": expected globals " + expected + " but got " + actual);
+        }
+
+        for (Map.Entry<String, Integer> entry : calls.entrySet()) {
+            int count = countCalls(optimized.getAst(), entry.getKey());
+            if (count != entry.getValue()) {
+                throw new RuntimeException(name + ": expected " + entry.getValue() + " calls to "
+                        + entry.getKey() + " but found " + count);
+            }
+        }
+        for (String declaration : removed) {
+            if (declares(optimized.getAst(), declaration)) {
+                throw new RuntimeException(name + ": " + declaration + " was not removed");
+            }
+        }
+    }
+
+    private static Map<String, Object> run(SimpleLangProgram program, Map<String, Object> inputs) {
+        SimpleLangContext context = new SimpleLangContext(inputs);
+        try {
+            new SimpleLangInterpreter().execute(program, context);
+        } catch (RuntimeException e) {
+            return new HashMap<>(Map.of("(error)", String.valueOf(e.getMessage())));
+        }
+        return new HashMap<>(context.getGlobals());
+    }
+
+    @SuppressWarnings("unchecked")
+    private static int countCalls(Object value, String function) {
+        int count = 0;
+        if (value instanceof Map) {
+            Map<String, Object> node = (Map<String, Object>) value;
+            if ("functionCall".equals(node.get("type")) && function.equals(node.get("name"))) {
+                count++;
+            }
+            for (Object child : node.values()) {
+                count += countCalls(child, function);
+            }
+        } else if (value instanceof List) {
+            for (Object child : (List<Object>) value) {
+                count += countCalls(child, function);
+            }
+        }
+        return count;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static boolean declares(Object value, String identifier) {
+        if (value instanceof Map) {
+            Map<String, Object> node = (Map<String, Object>) value;
+            if (("functionDeclaration".equals(node.get("type")) && identifier.equals(node.get("name")))
+                    || ("variableDeclaration".equals(node.get("type")) && identifier.equals(node.get("identifier")))) {
+                return true;
+            }
+            for (Object child : node.values()) {
+                if (declares(child, identifier)) {
+                    return true;
+                }
+            }
+        } else if (value instanceof List) {
+            for (Object child : (List<Object>) value) {
+                if (declares(child, identifier)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+}
@@ -5,18 +5,47 @@ import java.util.Map;
 
 public class SimpleLangParser {
     private String currentMethod;
+    private RuntimeException error;
 
     private final List<SimpleLangLexer.Token> tokens;
     private int current = 0;
+    private final boolean lazy;
+    private final int offset;
+    private final boolean trace;
 
     public SimpleLangParser(List<SimpleLangLexer.Token> tokens) {
+        this(tokens, false);
+    }
+
+    // In lazy mode function bodies are not parsed: the declaration keeps the body's tokens under
+    // "bodyTokens" and the names of the functions declared anywhere inside it under
+    // "nestedFunctions", and parseFunctionBody() parses the body when it is first needed.
+    public SimpleLangParser(List<SimpleLangLexer.Token> tokens, boolean lazy) {
+        this(tokens, lazy, 0, true);
+    }
+
+    // Bodies are parsed on whichever thread first needs them, so they are parsed without the trace.
+    // offset is the index of the first token in the whole source, which keeps "position" absolute.
+    private SimpleLangParser(List<SimpleLangLexer.Token> tokens, boolean lazy, int offset, boolean trace) {
         this.tokens = tokens;
+        this.lazy = lazy;
+        this.offset = offset;
+        this.trace = trace;
     }
 
     public Map<String, Object> parse() {
         return program();
     }
 
+    @SuppressWarnings("unchecked")
+    public static List<Map<String, Object>> parseFunctionBody(Map<String, Object> function) {
+        if (function.containsKey("body")) {
+            return (List<Map<String, Object>>) function.get("body");
+        }
+        List<SimpleLangLexer.Token> bodyTokens = (List<SimpleLangLexer.Token>) function.get("bodyTokens");
+        return new SimpleLangParser(new ArrayList<>(bodyTokens), true, (Integer) function.get("bodyStart"), false).functionBody();
+    }
+
     private Map<String, Object> program() {
         String previousMethod = currentMethod;
         currentMethod = "program";
@@ -33,6 +62,7 @@ public class SimpleLangParser {
             } catch (RuntimeException e) {
                 System.err.println("Error while parsing statement:");
                 e.printStackTrace();
+                error = e;
                 break;
             }
         }
@@ -45,7 +75,7 @@ public class SimpleLangParser {
     private Map<String, Object> variableDeclaration() {
         String previousMethod = currentMethod;
         currentMethod = "variableDeclaration";
-        System.out.println("Entering variableDeclaration()");
+        trace("Entering variableDeclaration()");
         Map<String, Object> node = new HashMap<>();
         node.put("type", "variableDeclaration");
         
@@ -67,7 +97,7 @@ public class SimpleLangParser {
             throw new RuntimeException("Expected ';' after variable declaration.");
         }
     
-        System.out.println("Exiting variableDeclaration()");
+        trace("Exiting variableDeclaration()");
         currentMethod = previousMethod;
         return node;
     }
@@ -75,35 +105,41 @@ public class SimpleLangParser {
     private Map<String, Object> statement() {
         String previousMethod = currentMethod;
         currentMethod = "statement";
-        System.out.println("Entering statement()");
+        trace("Entering statement()");
         if (peek().getType() == SimpleLangLexer.TokenType.KEYWORD && "var".equals(peek().getLexeme())) {
-            System.out.println("routing to variableDeclaration()");
+            trace("routing to variableDeclaration()");
             currentMethod = previousMethod;
             return variableDeclaration();
         } else if (peek().getType() == SimpleLangLexer.TokenType.KEYWORD && "if".equals(peek().getLexeme())) {
-            System.out.println("Routing to ifStatement()");
+            trace("Routing to ifStatement()");
             currentMethod = previousMethod;
             return ifStatement();
         } else if (peek().getType() == SimpleLangLexer.TokenType.KEYWORD && "while".equals(peek().getLexeme())) {
-            System.out.println("Routing to whileStatment()");
+            trace("Routing to whileStatment()");
             currentMethod = previousMethod;
             return whileStatement();
         } else if (peek().getType() == SimpleLangLexer.TokenType.KEYWORD && "function".equals(peek().getLexeme())) {
-            System.out.println("routing to functionDeclaration()");
+            trace("routing to functionDeclaration()");
             currentMethod = previousMethod;
             return functionDeclaration();
+        } else if (peek().getType() == SimpleLangLexer.TokenType.KEYWORD && "return".equals(peek().getLexeme())) {
+            trace("routing to returnStatement()");
+            currentMethod = previousMethod;
+            return returnStatement();
         } else if (peek().getType() == SimpleLangLexer.TokenType.IDENTIFIER) {
             if (peek(1) != null && peek(1).getType() == SimpleLangLexer.TokenType.ASSIGN) {
-                System.out.println("Routing to assignment()");
+                trace("Routing to assignment()");
                 currentMethod = previousMethod;
                 return assignment();
             } else if (peek(1) != null && peek(1).getType() == SimpleLangLexer.TokenType.LEFT_PAREN) {
-                System.out.println("routing to functionCall()");
+                trace("routing to functionCall()");
                 currentMethod = previousMethod;
-                return functionCall();
+                Map<String, Object> call = functionCall();
+                consume(SimpleLangLexer.TokenType.SEMICOLON, "Expected ';' after function call.");
+                return call;
             }
         } else if (peek().getType() == SimpleLangLexer.TokenType.IDENTIFIER && peek(1) != null && peek(1).getType() == SimpleLangLexer.TokenType.ASSIGN) {
-            System.out.println("Routing to assignment()");
+            trace("Routing to assignment()");
 
             return assignment();
         }
@@ -115,7 +151,7 @@ public class SimpleLangParser {
     private Map<String, Object> blockStatement() {
         String previousMethod = currentMethod;
         currentMethod = "blockStatement";
-        System.out.println("Entering blockStatement()");
+        trace("Entering blockStatement()");
         Map<String, Object> node = new HashMap<>();
         node.put("type", "block");
     
@@ -129,7 +165,7 @@ public class SimpleLangParser {
         consume(SimpleLangLexer.TokenType.RIGHT_BRACE, "Expected '}'.");
     
         node.put("statements", statements);
-        System.out.println("Exiting blockStatement()");
+        trace("Exiting blockStatement()");
         currentMethod = previousMethod;
         return node;
     }
@@ -137,14 +173,14 @@ public class SimpleLangParser {
     private Map<String, Object> assignment() {
         String previousMethod = currentMethod;
         currentMethod = "assignment";
-        System.out.println("Entering assignment()");
+        trace("Entering assignment()");
         Map<String, Object> node = new HashMap<>();
         node.put("type", "assignment");
         node.put("name", consume(SimpleLangLexer.TokenType.IDENTIFIER, "Expected a variable name.").getLexeme());
         consume(SimpleLangLexer.TokenType.ASSIGN, "Expected '='.");
         node.put("value", expression());
         consume(SimpleLangLexer.TokenType.SEMICOLON, "Expected ';'.");
-        System.out.println("Exiting assignment()");
+        trace("Exiting assignment()");
         currentMethod = previousMethod;
         return node;
     }
@@ -152,7 +188,7 @@ public class SimpleLangParser {
     private Map<String, Object> ifStatement() {
         String previousMethod = currentMethod;
         currentMethod = "ifStatement";
-        System.out.println("Entering ifStatement()");
+        trace("Entering ifStatement()");
         Map<String, Object> node = new HashMap<>();
         node.put("type", "ifStatement");
     
@@ -175,7 +211,8 @@ public class SimpleLangParser {
     
         consume(SimpleLangLexer.TokenType.RIGHT_BRACE);
     
-        if (match(SimpleLangLexer.TokenType.KEYWORD) && "else".equals(previous().getLexeme())) {
+        if (check(SimpleLangLexer.TokenType.KEYWORD) && "else".equals(peek().getLexeme())) {
+            advance();
             consume(SimpleLangLexer.TokenType.LEFT_BRACE);
     
             List<Map<String, Object>> falseBranch = new ArrayList<>();
@@ -186,7 +223,7 @@ public class SimpleLangParser {
     
             consume(SimpleLangLexer.TokenType.RIGHT_BRACE);
         }
-        System.out.println("Exiting ifStatement()");
+        trace("Exiting ifStatement()");
         currentMethod = previousMethod;
         return node;
     }
@@ -196,7 +233,7 @@ public class SimpleLangParser {
     private Map<String, Object> whileStatement() {
         String previousMethod = currentMethod;
         currentMethod = "whileStatement";
-        System.out.println("Entering whileStatement()");
+        trace("Entering whileStatement()");
         Map<String, Object> node = new HashMap<>();
         node.put("type", "whileStatement");
     
@@ -224,7 +261,7 @@ public class SimpleLangParser {
         }
         node.put("body", body);
     
-        System.out.println("Exiting whileStatement()");
+        trace("Exiting whileStatement()");
         currentMethod = previousMethod;
         return node;
     }
@@ -232,7 +269,7 @@ public class SimpleLangParser {
     private Map<String, Object> forStatement() {
         String previousMethod = currentMethod;
         currentMethod = "forStatement";
-        System.out.println("Entering forStatement()");
+        trace("Entering forStatement()");
         Map<String, Object> node = new HashMap<>();
         node.put("type", "forStatement");
     
@@ -268,7 +305,7 @@ public class SimpleLangParser {
         }
         node.put("body", body);
     
-        System.out.println("Exiting forStatement()");
+        trace("Exiting forStatement()");
         currentMethod = previousMethod;
         return node;
     }
@@ -276,13 +313,16 @@ public class SimpleLangParser {
     private Map<String, Object> functionDeclaration() {
         String previousMethod = currentMethod;
         currentMethod = "functionDeclaration";
-        System.out.println("Entering functionDeclaration()");
+        trace("Entering functionDeclaration()");
         Map<String, Object> node = new HashMap<>();
         node.put("type", "functionDeclaration");
     
         if (!match(SimpleLangLexer.TokenType.KEYWORD) || !"function".equals(previous().getLexeme())) {
             throw new RuntimeException("Expected 'function' keyword.");
         }
+        // Where the declaration starts in the source; of two functions with the same name the
+        // later one wins, whichever body is parsed first.
+        node.put("position", offset + current - 1);
     
         if (!match(SimpleLangLexer.TokenType.IDENTIFIER)) {
             throw new RuntimeException("Expected function identifier.");
@@ -308,21 +348,55 @@ public class SimpleLangParser {
             throw new RuntimeException("Expected '{' after parameters.");
         }
     
+        if (lazy) {
+            int start = current;
+            List<String> nestedFunctions = new ArrayList<>();
+            skipBlock(nestedFunctions);
+            node.put("bodyTokens", new ArrayList<>(tokens.subList(start, current)));
+            node.put("bodyStart", offset + start);
+            node.put("nestedFunctions", nestedFunctions);
+        } else {
+            node.put("body", functionBody());
+        }
+    
+        trace("Exiting functionDeclaration()");
+        currentMethod = previousMethod;
+        return node;
+    }
+    
+    private List<Map<String, Object>> functionBody() {
         List<Map<String, Object>> body = new ArrayList<>();
         while (!match(SimpleLangLexer.TokenType.RIGHT_BRACE)) {
             body.add(statement());
         }
-        node.put("body", body);
+        return body;
+    }
     
-        System.out.println("Exiting functionDeclaration()");
-        currentMethod = previousMethod;
-        return node;
+    // Advances past the '}' matching an already consumed '{' without building any nodes, only
+    // noting the name after every "function" keyword on the way.
+    private void skipBlock(List<String> nestedFunctions) {
+        int depth = 1;
+        while (depth > 0) {
+            if (isAtEnd()) {
+                throw new RuntimeException("Expected '}' to close function body.");
+            }
+            SimpleLangLexer.Token token = advance();
+            SimpleLangLexer.TokenType type = token.getType();
+            if (type == SimpleLangLexer.TokenType.LEFT_BRACE) {
+                depth++;
+            } else if (type == SimpleLangLexer.TokenType.RIGHT_BRACE) {
+                depth--;
+            } else if (type == SimpleLangLexer.TokenType.KEYWORD && "function".equals(token.getLexeme())
+                    && check(SimpleLangLexer.TokenType.IDENTIFIER)) {
+                nestedFunctions.add(peek().getLexeme());
+            }
+        }
     }
     
     private Map<String, Object> functionCall() {
         String previousMethod = currentMethod;
         currentMethod = "functionCall";
-        System.out.println("Entering functionCall()");
+        trace("Entering functionCall()");
         Map<String, Object> node = new HashMap<>();
         node.put("type", "functionCall");
     
@@ -343,7 +417,7 @@ public class SimpleLangParser {
         }
         node.put("arguments", arguments);
     
-        System.out.println("Exiting functionCall()");
+        trace("Exiting functionCall()");
         currentMethod = previousMethod;
         return node;
     }
@@ -351,7 +425,7 @@ public class SimpleLangParser {
     private Map<String, Object> tryCatchStatement() {
         String previousMethod = currentMethod;
         currentMethod = "tryCatchStatement";
-        System.out.println("Entering tryCatchStatement()");
+        trace("Entering tryCatchStatement()");
         Map<String, Object> node = new HashMap<>();
         node.put("type", "tryCatchStatement");
     
@@ -383,7 +457,7 @@ public class SimpleLangParser {
         }
         node.put("catchBlock", catchBlock);
     
-        System.out.println("Exiting tryCatchStatement()");
+        trace("Exiting tryCatchStatement()");
         currentMethod = previousMethod;
         return node;
     }
@@ -391,32 +465,32 @@ public class SimpleLangParser {
     private Map<String, Object> expression() {
         String previousMethod = currentMethod;
         currentMethod = "expression";
-        System.out.println("Entering expression()");
-        // Call the arithmetic method, which handles all arithmetic operations
+        trace("Entering expression()");
+        // Call the comparison method, which handles comparisons of arithmetic operands
         currentMethod = previousMethod;
-        return arithmetic();
+        return comparison();
     }
     
     private Map<String, Object> comparison() {
         String previousMethod = currentMethod;
         currentMethod = "comparison";
-        System.out.println("Entering comparison()");
-        Map<String, Object> node = new HashMap<>();
-        node.put("type", "comparison");
+        trace("Entering comparison()");
+        Map<String, Object> left = arithmetic();
     
-        node.put("left", expression());
-    
-        if (match(SimpleLangLexer.TokenType.EQUALS, SimpleLangLexer.TokenType.NOT_EQUALS,
+        if (!match(SimpleLangLexer.TokenType.EQUALS, SimpleLangLexer.TokenType.NOT_EQUALS,
                 SimpleLangLexer.TokenType.GREATER_THAN, SimpleLangLexer.TokenType.LESS_THAN,
                 SimpleLangLexer.TokenType.GREATER_EQUAL, SimpleLangLexer.TokenType.LESS_EQUAL)) {
-            node.put("operator", previous().getLexeme());
-        } else {
-            throw new RuntimeException("Expected a comparison operator.");
+            currentMethod = previousMethod;
+            return left;
         }
     
-        node.put("right", expression());
+        Map<String, Object> node = new HashMap<>();
+        node.put("type", "comparison");
+        node.put("left", left);
+        node.put("operator", previous().getLexeme());
+        node.put("right", arithmetic());
     
-        System.out.println("Exiting comparison()");
+        trace("Exiting comparison()");
         currentMethod = previousMethod;
         return node;
     }
@@ -424,20 +498,20 @@ public class SimpleLangParser {
     private Map<String, Object> term() {
         String previousMethod = currentMethod;
         currentMethod = "term";
-        System.out.println("Entering term()");
+        trace("Entering term()");
         Map<String, Object> node = new HashMap<>();
         node.put("type", "term");
     
-        node.put("left", factor());
+        Map<String, Object> left = factor();
     
         while (match(SimpleLangLexer.TokenType.MULTIPLY, SimpleLangLexer.TokenType.DIVIDE)) {
-            Map<String, Object> operation = new HashMap<>();
-            operation.put("operator", previous().getLexeme());
-            operation.put("right", factor());
-            node.put("operation", operation);
+            String operator = previous().getLexeme();
+            Map<String, Object> right = factor();
+            left = binaryOperationNode(left, operator, right);
         }
+        node.put("left", left);
     
-        System.out.println("Exiting term()");
+        trace("Exiting term()");
         currentMethod = previousMethod;
         return node;
     }
@@ -445,11 +519,13 @@ public class SimpleLangParser {
     private Map<String, Object> factor() {
         String previousMethod = currentMethod;
         currentMethod = "factor";
-        System.out.println("Entering factor()");
+        trace("Entering factor()");
         Map<String, Object> node = new HashMap<>();
         node.put("type", "factor");
     
-        if (match(SimpleLangLexer.TokenType.NATURAL_LITERAL, SimpleLangLexer.TokenType.REAL_LITERAL,
+        if (check(SimpleLangLexer.TokenType.IDENTIFIER) && peek(1) != null && peek(1).getType() == SimpleLangLexer.TokenType.LEFT_PAREN) {
+            node.put("call", functionCall());
+        } else if (match(SimpleLangLexer.TokenType.NATURAL_LITERAL, SimpleLangLexer.TokenType.REAL_LITERAL,
                 SimpleLangLexer.TokenType.CHAR_LITERAL, SimpleLangLexer.TokenType.STRING_LITERAL,
                 SimpleLangLexer.TokenType.BOOL_LITERAL, SimpleLangLexer.TokenType.IDENTIFIER)) {
             node.put("value", previous().getLexeme());
@@ -462,7 +538,7 @@ public class SimpleLangParser {
             throw new RuntimeException("Expected a value, identifier, or expression in parentheses.");
         }
     
-        System.out.println("Exiting factor()");
+        trace("Exiting factor()");
         currentMethod = previousMethod;
         return node;
     }
@@ -470,7 +546,7 @@ public class SimpleLangParser {
     private Map<String, Object> arrayLiteral() {
         String previousMethod = currentMethod;
         currentMethod = "arrayLiteral";
-        System.out.println("Entering arrayLiteral()");
+        trace("Entering arrayLiteral()");
         Map<String, Object> node = new HashMap<>();
         node.put("type", "arrayLiteral");
         List<Object> elements = new ArrayList<>();
@@ -485,7 +561,7 @@ public class SimpleLangParser {
     
         node.put("elements", elements);
         
-        System.out.println("Exiting arrayLiteral()");
+        trace("Exiting arrayLiteral()");
         currentMethod = previousMethod;
         return node;
     }
@@ -493,7 +569,7 @@ public class SimpleLangParser {
     private Map<String, Object> arithmetic() {
         String previousMethod = currentMethod;
         currentMethod = "arithmetic";
-        System.out.println("Entering arithmetic()");
+        trace("Entering arithmetic()");
         Map<String, Object> node = additive();
     
         while (match(SimpleLangLexer.TokenType.MULTIPLY, SimpleLangLexer.TokenType.DIVIDE)) {
@@ -502,7 +578,7 @@ public class SimpleLangParser {
             node = binaryOperationNode(node, operator, right);
         }
     
-        System.out.println("Exiting arithmetic()");
+        trace("Exiting arithmetic()");
         currentMethod = previousMethod;
         return node;
     }
@@ -510,7 +586,7 @@ public class SimpleLangParser {
     private Map<String, Object> additive() {
         String previousMethod = currentMethod;
         currentMethod = "additive";
-        System.out.println("Entering additive()");
+        trace("Entering additive()");
         Map<String, Object> node = term();
     
         while (match(SimpleLangLexer.TokenType.PLUS, SimpleLangLexer.TokenType.MINUS)) {
@@ -519,7 +595,7 @@ public class SimpleLangParser {
             node = binaryOperationNode(node, operator, right);
         }
     
-        System.out.println("Exiting additive()");
+        trace("Exiting additive()");
         currentMethod = previousMethod;
         return node;
     }
@@ -527,13 +603,13 @@ public class SimpleLangParser {
     private Map<String, Object> binaryOperationNode(Map<String, Object> left, String operator, Map<String, Object> right) {
         String previousMethod = currentMethod;
         currentMethod = "binaryOperationNode";
-        System.out.println("Entering binaryOperationNode()");
+        trace("Entering binaryOperationNode()");
         Map<String, Object> node = new HashMap<>();
         node.put("type", "binaryOperation");
         node.put("left", left);
         node.put("operator", operator);
         node.put("right", right);
-        System.out.println("Exiting binaryOperationNode()");
+        trace("Exiting binaryOperationNode()");
         currentMethod = previousMethod;
         return node;
     }
@@ -541,7 +617,7 @@ public class SimpleLangParser {
     private Map<String, Object> printStatement() {
         String previousMethod = currentMethod;
         currentMethod = "printStatement";
-        System.out.println("Entering printStatement()");
+        trace("Entering printStatement()");
         Map<String, Object> node = new HashMap<>();
         node.put("type", "printStatement");
     
@@ -555,7 +631,7 @@ public class SimpleLangParser {
             throw new RuntimeException("Expected ';' after print statement.");
         }
     
-        System.out.println("Exiting printStatement()");
+        trace("Exiting printStatement()");
         currentMethod = previousMethod;
         return node;
     }
@@ -563,7 +639,7 @@ public class SimpleLangParser {
     private Map<String, Object> returnStatement() {
         String previousMethod = currentMethod;
         currentMethod = "returnStatement";
-        System.out.println("Entering returnStatement()");
+        trace("Entering returnStatement()");
         Map<String, Object> node = new HashMap<>();
         node.put("type", "returnStatement");
     
@@ -579,7 +655,7 @@ public class SimpleLangParser {
             throw new RuntimeException("Expected ';' after return statement.");
         }
     
-        System.out.println("Exiting returnStatement()");
+        trace("Exiting returnStatement()");
         currentMethod = previousMethod;
         return node;
     }
@@ -587,7 +663,7 @@ public class SimpleLangParser {
     private Map<String, Object> breakStatement() {
         String previousMethod = currentMethod;
         currentMethod = "breakStatement";
-        System.out.println("Entering breakStatement()");
+        trace("Entering breakStatement()");
         Map<String, Object> node = new HashMap<>();
         node.put("type", "breakStatement");
     
@@ -599,7 +675,7 @@ public class SimpleLangParser {
             throw new RuntimeException("Expected ';' after break statement.");
         }
     
-        System.out.println("Exiting breakStatement()");
+        trace("Exiting breakStatement()");
         currentMethod = previousMethod;
         return node;
     }
@@ -607,7 +683,7 @@ public class SimpleLangParser {
     private Map<String, Object> continueStatement() {
         String previousMethod = currentMethod;
         currentMethod = "continueStatement";
-        System.out.println("Entering continueStatement()");
+        trace("Entering continueStatement()");
         Map<String, Object> node = new HashMap<>();
         node.put("type", "continueStatement");
     
@@ -619,22 +695,28 @@ public class SimpleLangParser {
             throw new RuntimeException("Expected ';' after continue statement.");
         }
     
-        System.out.println("Exiting continueStatement()");
+        trace("Exiting continueStatement()");
         currentMethod = previousMethod;
         return node;
     }
 
     // helper methods
+    private void trace(String message) {
+        if (trace) {
+            System.out.println(message);
+        }
+    }
+
     private SimpleLangLexer.Token peek() {
         if (isAtEnd()) return null;
         return tokens.get(current);
     }
 
     private SimpleLangLexer.Token peek(int offset) {
-        if (offset >= tokens.size()) {
+        if (current + offset >= tokens.size()) {
             return null;
         }
-        return tokens.get(offset);
+        return tokens.get(current + offset);
     }
     
 
@@ -667,18 +749,18 @@ public class SimpleLangParser {
     }
 
    private SimpleLangLexer.Token consume(SimpleLangLexer.TokenType expected, String errorMessage) {
-       if (peek().getType() == expected) {
-           return tokens.remove(0);
+       if (check(expected)) {
+           return advance();
        } else {
            throw new RuntimeException(errorMessage);
        }
    }
 
    private SimpleLangLexer.Token consume(SimpleLangLexer.TokenType expected) {
-    if (peek().getType() == expected) {
-        return tokens.remove(0);
+    if (check(expected)) {
+        return advance();
     } else {
-        throw new RuntimeException("Expected " + expected + " but found " + peek().getType());
+        throw new RuntimeException("Expected " + expected + " but found " + (isAtEnd() ? "end of input" : peek().getType()));
     }
 }
 
@@ -690,5 +772,9 @@ public class SimpleLangParser {
     public String getCurrentMethod() {
         return currentMethod;
     }
+
+    public RuntimeException getError() {
+        return error;
+    }
     
 }
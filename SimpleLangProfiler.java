@@ -0,0 +1,261 @@
+// sampling profiler
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+// Call and loop-iteration counts are exact. Time is estimated by sampling: a background thread
+// wakes up every interval, reads the shadow stack of every context that is on a CPU (not waiting
+// in a yield) and charges it the time measured since the previous sample, so a run pays only for
+// pushing and popping immutable frames on calls and loop entries.
+public class SimpleLangProfiler {
+    public static final String MAIN_FRAME = "(main)";
+
+    private final long intervalNanos;
+    private final int processors = Runtime.getRuntime().availableProcessors();
+    private final Set<SimpleLangContext> running = ConcurrentHashMap.newKeySet();
+    private final Map<String, LongAdder> calls = new ConcurrentHashMap<>();
+    private final Map<String, LongAdder> loopIterations = new ConcurrentHashMap<>();
+    private final Map<String, LongAdder> stacks = new ConcurrentHashMap<>();
+    private final Map<String, LongAdder> stackNanos = new ConcurrentHashMap<>();
+
+    private volatile Thread sampler;
+
+    public SimpleLangProfiler() {
+        this(1, TimeUnit.MILLISECONDS);
+    }
+
+    public SimpleLangProfiler(long interval, TimeUnit unit) {
+        if (interval <= 0) {
+            throw new IllegalArgumentException("Sampling interval must be positive.");
+        }
+        this.intervalNanos = unit.toNanos(interval);
+    }
+
+    public synchronized void start() {
+        if (sampler != null) {
+            return;
+        }
+        Thread thread = new Thread(this::sampleLoop, "simplelang-profiler");
+        thread.setDaemon(true);
+        sampler = thread;
+        thread.start();
+    }
+
+    public synchronized void stop() {
+        Thread thread = sampler;
+        if (thread == null) {
+            return;
+        }
+        sampler = null;
+        thread.interrupt();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // The sleep overshoots the interval by a varying amount, so each sample is weighted by the
+    // time that actually passed since the previous one. The scheduler may run more carrier
+    // threads than there are processors, in which case the contexts on them share that time.
+    private void sampleLoop() {
+        long previous = System.nanoTime();
+        List<String> sampled = new ArrayList<>();
+        while (sampler == Thread.currentThread()) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(intervalNanos);
+            } catch (InterruptedException e) {
+                return;
+            }
+            long now = System.nanoTime();
+            long elapsed = now - previous;
+            previous = now;
+
+            sampled.clear();
+            for (SimpleLangContext context : running) {
+                Frame frame = context.currentFrame();
+                if (frame != null && context.isOnCpu()) {
+                    sampled.add(frame.collapsed());
+                }
+            }
+            long share = sampled.size() > processors ? elapsed * processors / sampled.size() : elapsed;
+            for (String stack : sampled) {
+                stacks.computeIfAbsent(stack, k -> new LongAdder()).increment();
+                stackNanos.computeIfAbsent(stack, k -> new LongAdder()).add(share);
+            }
+        }
+    }
+
+    void register(SimpleLangContext context) {
+        running.add(context);
+    }
+
+    void unregister(SimpleLangContext context) {
+        running.remove(context);
+    }
+
+    void recordCall(String function) {
+        calls.computeIfAbsent(function, k -> new LongAdder()).increment();
+    }
+
+    void recordIterations(String loop, long iterations) {
+        loopIterations.computeIfAbsent(loop, k -> new LongAdder()).add(iterations);
+    }
+
+    public Map<String, Long> getLoopIterations() {
+        Map<String, Long> result = new TreeMap<>();
+        for (Map.Entry<String, LongAdder> entry : loopIterations.entrySet()) {
+            result.put(entry.getKey(), entry.getValue().sum());
+        }
+        return result;
+    }
+
+    // Loop frames count towards the function that contains them, so a function's self time
+    // includes its own loops but not the functions it calls.
+    public Map<String, FunctionStats> getFunctionStats() {
+        Map<String, FunctionStats> result = new TreeMap<>();
+        for (Map.Entry<String, LongAdder> entry : calls.entrySet()) {
+            result.computeIfAbsent(entry.getKey(), FunctionStats::new).calls = entry.getValue().sum();
+        }
+
+        for (Map.Entry<String, LongAdder> entry : stacks.entrySet()) {
+            long samples = entry.getValue().sum();
+            LongAdder measured = stackNanos.get(entry.getKey());
+            long nanos = measured == null ? 0 : measured.sum();
+            String[] frames = entry.getKey().split(";");
+            Set<String> seen = new HashSet<>();
+            String innermost = null;
+            for (String frame : frames) {
+                if (isLoop(frame)) {
+                    continue;
+                }
+                innermost = frame;
+                if (seen.add(frame)) {
+                    FunctionStats stats = result.computeIfAbsent(frame, FunctionStats::new);
+                    stats.totalSamples += samples;
+                    stats.totalNanos += nanos;
+                }
+            }
+            if (innermost != null) {
+                FunctionStats stats = result.get(innermost);
+                stats.selfSamples += samples;
+                stats.selfNanos += nanos;
+            }
+        }
+        return result;
+    }
+
+    // One "frame;frame;frame count" line per distinct stack, the input format of flamegraph.pl
+    // and most other flame graph tools.
+    public void writeCollapsedStacks(Writer out) throws IOException {
+        Map<String, Long> sorted = new TreeMap<>();
+        for (Map.Entry<String, LongAdder> entry : stacks.entrySet()) {
+            sorted.put(entry.getKey(), entry.getValue().sum());
+        }
+        for (Map.Entry<String, Long> entry : sorted.entrySet()) {
+            out.write(entry.getKey() + " " + entry.getValue() + "\n");
+        }
+        out.flush();
+    }
+
+    public String report() {
+        StringBuilder builder = new StringBuilder();
+        builder.append(String.format("%-30s %12s %12s %12s%n", "function", "calls", "self ms", "total ms"));
+        List<FunctionStats> functions = new ArrayList<>(getFunctionStats().values());
+        functions.sort((a, b) -> Long.compare(b.selfNanos, a.selfNanos));
+        for (FunctionStats stats : functions) {
+            builder.append(String.format("%-30s %12d %12.1f %12.1f%n",
+                    stats.name, stats.calls, stats.getSelfMillis(), stats.getTotalMillis()));
+        }
+        builder.append(String.format("%n%-30s %12s%n", "loop", "iterations"));
+        for (Map.Entry<String, Long> entry : getLoopIterations().entrySet()) {
+            builder.append(String.format("%-30s %12d%n", entry.getKey(), entry.getValue()));
+        }
+        return builder.toString();
+    }
+
+    public void reset() {
+        calls.clear();
+        loopIterations.clear();
+        stacks.clear();
+        stackNanos.clear();
+    }
+
+    private static boolean isLoop(String frame) {
+        return frame.contains(":while#");
+    }
+
+    public static final class FunctionStats {
+        private final String name;
+        private long calls;
+        private long selfSamples;
+        private long totalSamples;
+        private long selfNanos;
+        private long totalNanos;
+
+        private FunctionStats(String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getCalls() {
+            return calls;
+        }
+
+        public long getSelfSamples() {
+            return selfSamples;
+        }
+
+        public long getTotalSamples() {
+            return totalSamples;
+        }
+
+        public double getSelfMillis() {
+            return selfNanos / 1_000_000.0;
+        }
+
+        public double getTotalMillis() {
+            return totalNanos / 1_000_000.0;
+        }
+    }
+
+    static final class Frame {
+        private final String name;
+        private final Frame parent;
+
+        Frame(String name, Frame parent) {
+            this.name = name;
+            this.parent = parent;
+        }
+
+        Frame getParent() {
+            return parent;
+        }
+
+        private String collapsed() {
+            List<String> names = new ArrayList<>();
+            for (Frame frame = this; frame != null; frame = frame.parent) {
+                names.add(frame.name);
+            }
+            StringBuilder builder = new StringBuilder();
+            for (int i = names.size() - 1; i >= 0; i--) {
+                builder.append(names.get(i));
+                if (i > 0) {
+                    builder.append(';');
+                }
+            }
+            return builder.toString();
+        }
+    }
+}
@@ -0,0 +1,174 @@
+// compiled program
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public final class SimpleLangProgram {
+    private final SimpleLangFunctionTable functions = new SimpleLangFunctionTable(this::getFunctionBody);
+
+    private final Map<String, Object> ast;
+    private final List<Map<String, Object>> statements;
+
+    @SuppressWarnings("unchecked")
+    private SimpleLangProgram(Map<String, Object> ast) {
+        this.ast = (Map<String, Object>) freeze(ast, SimpleLangProfiler.MAIN_FRAME, new int[1]);
+        this.statements = (List<Map<String, Object>>) this.ast.get("statements");
+        functions.collect(this.statements);
+    }
+
+    public static SimpleLangProgram compile(String source) {
+        return fromAst(parse(source, false));
+    }
+
+    // Function bodies are parsed on their first call, so large libraries start executing sooner.
+    // Unlike the other two, a syntax error inside a body is only reported when that body is first
+    // needed, and never if it is not.
+    public static SimpleLangProgram compileLazy(String source) {
+        return fromAst(parse(source, true));
+    }
+
+    // Parsed eagerly, so syntax errors in functions the optimizer then removes are still reported.
+    public static SimpleLangProgram compile(String source, SimpleLangOptimizer optimizer) {
+        return fromAst(optimizer.optimize(parse(source, false)));
+    }
+
+    // The parser stops at the first bad statement and returns what it has so far; a compiled
+    // program must not silently drop the rest, so that case is an error here.
+    private static Map<String, Object> parse(String source, boolean lazy) {
+        SimpleLangParser parser = new SimpleLangParser(new SimpleLangLexer().lex(source), lazy);
+        Map<String, Object> ast = parser.parse();
+        if (parser.getError() != null) {
+            throw new RuntimeException("Parse error: " + parser.getError().getMessage(), parser.getError());
+        }
+        return ast;
+    }
+
+    public static SimpleLangProgram fromAst(Map<String, Object> ast) {
+        if (ast == null || !"program".equals(ast.get("type"))) {
+            throw new RuntimeException("Expected a program node.");
+        }
+        return new SimpleLangProgram(ast);
+    }
+
+    public Map<String, Object> getAst() {
+        return ast;
+    }
+
+    public List<Map<String, Object>> getStatements() {
+        return statements;
+    }
+
+    public Map<String, Object> getFunction(String name) {
+        return functions.get(name);
+    }
+
+    public Map<String, Map<String, Object>> getFunctions() {
+        parseAllBodies();
+        return functions.asMap();
+    }
+
+    @SuppressWarnings("unchecked")
+    public List<Map<String, Object>> getFunctionBody(Map<String, Object> function) {
+        Object body = function.get("body");
+        if (body != null) {
+            return (List<Map<String, Object>>) body;
+        }
+        return ((LazyBody) function.get("lazyBody")).get();
+    }
+
+    private void parseAllBodies() {
+        int known;
+        do {
+            known = functions.asMap().size();
+            for (Map<String, Object> function : List.copyOf(functions.asMap().values())) {
+                getFunctionBody(function);
+            }
+        } while (functions.asMap().size() != known);
+    }
+
+    // Deep copies the parser output into unmodifiable collections so one program can be shared
+    // between threads. Literal lexemes are decoded once here instead of on every evaluation, and
+    // each loop is labelled "<function>:while#<n>" (numbered in source order) for the profiler.
+    @SuppressWarnings("unchecked")
+    private Object freeze(Object value, String function, int[] loops) {
+        if (value instanceof Map) {
+            Map<String, Object> source = (Map<String, Object>) value;
+            Map<String, Object> copy = new HashMap<>();
+            if ("functionDeclaration".equals(source.get("type"))) {
+                function = (String) source.get("name");
+                loops = new int[1];
+            } else if ("whileStatement".equals(source.get("type"))) {
+                copy.put("loopLabel", function + ":while#" + (++loops[0]));
+            }
+
+            // The else branch comes after the then branch in the source.
+            List<String> keys = new ArrayList<>(source.keySet());
+            keys.sort(Comparator.comparing("falseBranch"::equals));
+            for (String key : keys) {
+                copy.put(key, freeze(source.get(key), function, loops));
+            }
+            if (copy.containsKey("bodyTokens") && !copy.containsKey("body")) {
+                copy.put("lazyBody", new LazyBody(Map.of("bodyTokens", copy.get("bodyTokens"), "bodyStart", copy.get("bodyStart")), function));
+            }
+            if ("factor".equals(copy.get("type")) && copy.get("value") instanceof String) {
+                Object constant = literal((String) copy.get("value"));
+                if (constant != null) {
+                    copy.put("constant", constant);
+                }
+            }
+            return Collections.unmodifiableMap(copy);
+        } else if (value instanceof List) {
+            List<Object> copy = new ArrayList<>();
+            for (Object element : (List<Object>) value) {
+                copy.add(freeze(element, function, loops));
+            }
+            return Collections.unmodifiableList(copy);
+        }
+        return value;
+    }
+
+    private static Object literal(String lexeme) {
+        char first = lexeme.charAt(0);
+        if (Character.isDigit(first)) {
+            return lexeme.indexOf('.') >= 0 ? (Object) Double.parseDouble(lexeme) : (Object) Long.parseLong(lexeme);
+        } else if ("true".equals(lexeme) || "false".equals(lexeme)) {
+            return Boolean.parseBoolean(lexeme);
+        } else if (first == '\'') {
+            return lexeme.charAt(1);
+        } else if (first == '"') {
+            return lexeme.substring(1, lexeme.length() - 1);
+        }
+        return null;
+    }
+
+    // Parses a lazily declared body once, however many threads ask for it at the same time.
+    private final class LazyBody {
+        private final Map<String, Object> declaration;
+        private final String function;
+        private volatile List<Map<String, Object>> body;
+
+        private LazyBody(Map<String, Object> declaration, String function) {
+            this.declaration = declaration;
+            this.function = function;
+        }
+
+        @SuppressWarnings("unchecked")
+        private List<Map<String, Object>> get() {
+            List<Map<String, Object>> result = body;
+            if (result == null) {
+                synchronized (this) {
+                    result = body;
+                    if (result == null) {
+                        result = (List<Map<String, Object>>) freeze(SimpleLangParser.parseFunctionBody(declaration), function, new int[1]);
+                        functions.collect(result);
+                        body = result;
+                    }
+                }
+            }
+            return result;
+        }
+    }
+}